@@ -0,0 +1,62 @@
+package com.javafest.aiatspeed.benchmark;
+
+import com.javafest.aiatspeed.kernel.CompensatedReductions;
+import com.javafest.aiatspeed.kernel.RandomData;
+import com.javafest.aiatspeed.kernel.Reductions;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of accuracy in long dot products: the scalar double loop, the plain float SIMD kernel, and
+ * the three {@link CompensatedReductions} variants. The relative error of each against the scalar
+ * double result is printed once per trial.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class AccumulationBenchmark {
+    @Param({"1000000", "10000000"})
+    public int size;
+
+    private float[] a, b;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        a = new float[size];
+        b = new float[size];
+        RandomData.fillUniform(a, 123);
+        RandomData.fillUniform(b, 124);
+        double ref = scalarDouble();
+        System.out.printf("%nrelative error vs scalar double: float %.2e, blocked %.2e, wide %.2e, compensated %.2e%n",
+                Math.abs(vectorFloat() - ref) / ref, Math.abs(vectorBlocked() - ref) / ref,
+                Math.abs(vectorWide() - ref) / ref, Math.abs(vectorCompensated() - ref) / ref);
+    }
+
+    @Benchmark
+    public double scalarDouble() {
+        double sum = 0.0;
+        for (int i = 0; i < a.length; i++) sum += (double) a[i] * b[i];
+        return sum;
+    }
+
+    @Benchmark
+    public float vectorFloat() {
+        return Reductions.dot(a, b);
+    }
+
+    @Benchmark
+    public double vectorBlocked() {
+        return CompensatedReductions.dotBlocked(a, 0, b, 0, a.length);
+    }
+
+    @Benchmark
+    public double vectorWide() {
+        return CompensatedReductions.dotWide(a, 0, b, 0, a.length);
+    }
+
+    @Benchmark
+    public double vectorCompensated() {
+        return CompensatedReductions.dotCompensated(a, 0, b, 0, a.length);
+    }
+}
@@ -0,0 +1,52 @@
+package com.javafest.aiatspeed.benchmark;
+
+import com.javafest.aiatspeed.kernel.RandomData;
+import com.javafest.aiatspeed.search.BatchScorer;
+import com.javafest.aiatspeed.search.Hit;
+import com.javafest.aiatspeed.search.TopKSearch;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to answer a whole batch of queries: one corpus pass per query ({@link TopKSearch}) versus one
+ * blocked GEMM pass for the batch ({@link BatchScorer}). Divide by {@code batch} for per-query cost;
+ * the batch size where {@code blocked} wins is the crossover.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class BatchScoringBenchmark {
+    @Param({"500000"})
+    public int size;
+    @Param({"128"})
+    public int dim;
+    @Param({"1", "2", "4", "8", "16", "64"})
+    public int batch;
+
+    private static final int K = 10;
+    private TopKSearch single;
+    private BatchScorer blocked;
+    private float[][] queries;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        float[] corpus = new float[size * dim];
+        RandomData.fillUniform(corpus, -0.5f, 0.5f, 637);
+        queries = RandomData.uniformRows(batch, dim, -0.5f, 0.5f, 638);
+        single = new TopKSearch(corpus, dim);
+        blocked = new BatchScorer(corpus, dim);
+    }
+
+    @Benchmark
+    public Hit[][] perQuery() {
+        Hit[][] out = new Hit[batch][];
+        for (int i = 0; i < batch; i++) out[i] = single.searchParallel(queries[i], K);
+        return out;
+    }
+
+    @Benchmark
+    public Hit[][] blocked() {
+        return blocked.searchBatch(queries, K);
+    }
+}
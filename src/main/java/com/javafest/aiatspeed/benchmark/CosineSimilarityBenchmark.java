@@ -1,5 +1,8 @@
 package com.javafest.aiatspeed.benchmark;
 
+import com.javafest.aiatspeed.kernel.CompensatedReductions;
+import com.javafest.aiatspeed.kernel.ParallelReductions;
+import com.javafest.aiatspeed.kernel.RandomData;
 import com.javafest.aiatspeed.vector.VectorCapabilities;
 import org.openjdk.jmh.annotations.*;
 import java.util.concurrent.TimeUnit;
@@ -11,13 +14,21 @@ public class CosineSimilarityBenchmark {
     @Param({"10000000"})
     public int size;
     private float[] a,b;
+    private short[] ha,hb;
     @Setup(Level.Trial)
     public void setup() {
         VectorCapabilities.main(null);
         a = new float[size]; b = new float[size];
-        java.util.Random r = new java.util.Random(637);
-        for (int i = 0; i < size; i++) { a[i] = r.nextFloat(); b[i] = r.nextFloat(); }
+        RandomData.fillUniform(a, 637);
+        RandomData.fillUniform(b, 638);
+        ha = CosineSimilarityFp16.toHalf(a); hb = CosineSimilarityFp16.toHalf(b);
     }
     @Benchmark public float scalar() { return CosineSimilarityScalar.cosine(a,b); }
     @Benchmark public float vector() { return CosineSimilarityVector.cosine(a,b); }
+    // Fork-join over fixed species-aligned chunks; deterministic regardless of thread count
+    @Benchmark public float vectorParallel() { return ParallelReductions.cosine(a,b); }
+    // Double accumulators in widened lanes: scalar-double accuracy at SIMD speed
+    @Benchmark public float vectorWide() { return CompensatedReductions.cosineWide(a,b); }
+    // Same math on FP16 storage: half the bytes streamed, widened to float lanes in-register
+    @Benchmark public float vectorFp16() { return CosineSimilarityFp16.cosine(ha,hb); }
 }
@@ -0,0 +1,148 @@
+package com.javafest.aiatspeed.benchmark;
+
+import com.javafest.aiatspeed.kernel.KernelProfile;
+import com.javafest.aiatspeed.kernel.RandomData;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Cosine and dot kernels over IEEE half-precision (FP16) embeddings stored as {@code short[]}.
+ * <p>
+ * Storage is half the size of float32, so memory-bound scans move half the bytes. Arithmetic stays
+ * in float32: each iteration loads half a register of shorts, widens them to int lanes and rebuilds
+ * the float32 bit pattern in-register, then feeds the same FMA chains as {@link CosineSimilarityVector}.
+ */
+public class CosineSimilarityFp16 {
+    // The profile's float shape, but at least 128 bits so the half-width shorts are a legal 64-bit shape
+    static final VectorSpecies<Float> SPECIES = VectorSpecies.of(float.class,
+            VectorShape.forBitSize(Math.max(128, KernelProfile.FLOAT_SPECIES.vectorBitSize())));
+    static final VectorSpecies<Integer> INT_SPECIES =
+            VectorSpecies.of(int.class, VectorShape.forBitSize(SPECIES.vectorBitSize()));
+    static final VectorSpecies<Short> HALF_SPECIES =
+            VectorSpecies.of(short.class, VectorShape.forBitSize(SPECIES.vectorBitSize() / 2));
+
+    private static final int SHIFTED_EXP = 0x7C00 << 13;                // fp16 exponent mask, in fp32 position
+    private static final float DENORM_MAGIC = Float.intBitsToFloat(113 << 23);
+
+    /**
+     * Converts float32 values to FP16 bit patterns (round to nearest even).
+     */
+    public static short[] toHalf(float[] v) {
+        short[] h = new short[v.length];
+        for (int i = 0; i < v.length; i++) h[i] = Float.floatToFloat16(v[i]);
+        return h;
+    }
+
+    /**
+     * Converts FP16 bit patterns back to float32.
+     */
+    public static float[] toFloat(short[] h) {
+        float[] v = new float[h.length];
+        for (int i = 0; i < h.length; i++) v[i] = Float.float16ToFloat(h[i]);
+        return v;
+    }
+
+    /**
+     * Widens {@code SPECIES.length()} FP16 values starting at {@code h[offset]} to a float vector.
+     * Normals get their exponent rebiased; subnormals are renormalized with a magic subtraction;
+     * Inf/NaN keep an all-ones exponent.
+     */
+    static FloatVector widen(short[] h, int offset) {
+        IntVector bits = ((IntVector) ShortVector.fromArray(HALF_SPECIES, h, offset)
+                .convertShape(VectorOperators.S2I, INT_SPECIES, 0)).and(0xFFFF);
+        IntVector o = bits.and(0x7FFF).lanewise(VectorOperators.LSHL, 13);
+        IntVector exp = o.and(SHIFTED_EXP);
+        o = o.add((127 - 15) << 23);
+        o = o.add((128 - 16) << 23, exp.eq(SHIFTED_EXP));
+        VectorMask<Integer> denorm = exp.eq(0);
+        FloatVector f = o.add(1 << 23, denorm).reinterpretAsFloats()
+                .sub(DENORM_MAGIC, denorm.cast(SPECIES));
+        IntVector sign = bits.and(0x8000).lanewise(VectorOperators.LSHL, 16);
+        return f.reinterpretAsInts().or(sign).reinterpretAsFloats();
+    }
+
+    public static float cosine(short[] a, short[] b) {
+        int i = 0;
+        FloatVector vdot = FloatVector.zero(SPECIES);
+        FloatVector va2 = FloatVector.zero(SPECIES);
+        FloatVector vb2 = FloatVector.zero(SPECIES);
+        int upper = SPECIES.loopBound(a.length);
+        for (; i < upper; i += SPECIES.length()) {
+            FloatVector va = widen(a, i);
+            FloatVector vb = widen(b, i);
+            vdot = va.fma(vb, vdot);
+            va2 = va.fma(va, va2);
+            vb2 = vb.fma(vb, vb2);
+        }
+        float dot = vdot.reduceLanes(VectorOperators.ADD);
+        float na = va2.reduceLanes(VectorOperators.ADD);
+        float nb = vb2.reduceLanes(VectorOperators.ADD);
+        for (; i < a.length; i++) {
+            float x = Float.float16ToFloat(a[i]), y = Float.float16ToFloat(b[i]);
+            dot += x * y;
+            na += x * x;
+            nb += y * y;
+        }
+        return dot / ((float)(Math.sqrt(na) * Math.sqrt(nb)));
+    }
+
+    /**
+     * Dot product of a float32 query slice and an FP16 row slice, e.g. one row of a flat FP16 corpus.
+     */
+    public static float dot(float[] a, int aOffset, short[] b, int bOffset, int length) {
+        int i = 0;
+        FloatVector vdot = FloatVector.zero(SPECIES);
+        int upper = SPECIES.loopBound(length);
+        for (; i < upper; i += SPECIES.length()) {
+            FloatVector va = FloatVector.fromArray(SPECIES, a, aOffset + i);
+            vdot = va.fma(widen(b, bOffset + i), vdot);
+        }
+        float dot = vdot.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) dot += a[aOffset + i] * Float.float16ToFloat(b[bOffset + i]);
+        return dot;
+    }
+
+    /**
+     * Dot product of two FP16 slices.
+     */
+    public static float dot(short[] a, int aOffset, short[] b, int bOffset, int length) {
+        int i = 0;
+        FloatVector vdot = FloatVector.zero(SPECIES);
+        int upper = SPECIES.loopBound(length);
+        for (; i < upper; i += SPECIES.length()) {
+            vdot = widen(a, aOffset + i).fma(widen(b, bOffset + i), vdot);
+        }
+        float dot = vdot.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) dot += Float.float16ToFloat(a[aOffset + i]) * Float.float16ToFloat(b[bOffset + i]);
+        return dot;
+    }
+
+    public static void main(String[] args) {
+        int n = 100_000_000;
+        float[] a = new float[n];
+        float[] b = new float[n];
+        RandomData.fillUniform(a, 123);
+        RandomData.fillUniform(b, 124);
+        short[] ha = toHalf(a);
+        short[] hb = toHalf(b);
+
+        // warmup
+        CosineSimilarityVector.cosine(a, b);
+        cosine(ha, hb);
+
+        long t0 = System.nanoTime();
+        float res32 = CosineSimilarityVector.cosine(a, b);
+        long ms32 = (System.nanoTime() - t0)/1_000_000;
+        t0 = System.nanoTime();
+        float res16 = cosine(ha, hb);
+        long ms16 = (System.nanoTime() - t0)/1_000_000;
+        System.out.printf("FP32 cosine: %d ms (result %.6f, %d MB)%n", ms32, res32, 8L * n >> 20);
+        System.out.printf("FP16 cosine: %d ms (result %.6f, %d MB)%n", ms16, res16, 4L * n >> 20);
+    }
+}
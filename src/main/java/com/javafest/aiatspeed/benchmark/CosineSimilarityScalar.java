@@ -1,5 +1,7 @@
 package com.javafest.aiatspeed.benchmark;
 
+import com.javafest.aiatspeed.kernel.RandomData;
+
 public class CosineSimilarityScalar {
     public static float cosine(float[] a, float[] b) {
         double dot = 0.0, na = 0.0, nb = 0.0;
@@ -15,8 +17,8 @@ public class CosineSimilarityScalar {
         int n = 10_000_000_00;
         float[] a = new float[n];
         float[] b = new float[n];
-        java.util.Random r = new java.util.Random(123);
-        for (int i = 0; i < n; i++) { a[i] = r.nextFloat(); b[i] = r.nextFloat(); }
+        RandomData.fillUniform(a, 123);
+        RandomData.fillUniform(b, 124);
 
         // warmup
         float res;
@@ -0,0 +1,62 @@
+package com.javafest.aiatspeed.benchmark;
+
+import com.javafest.aiatspeed.search.EvalData;
+import com.javafest.aiatspeed.search.Hit;
+import com.javafest.aiatspeed.search.HnswIndex;
+import com.javafest.aiatspeed.search.TopKSearch;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Query latency distribution of {@link HnswIndex} against a brute-force scan.
+ * {@link Mode#SampleTime} makes JMH report p50/p90/p99/p99.9 per configuration; recall@10
+ * against brute force is printed once per trial.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class HnswIndexBenchmark {
+    @Param({"50000"})
+    public int size;
+    @Param({"128"})
+    public int dim;
+    @Param({"16"})
+    public int m;
+    @Param({"10", "50", "200"})
+    public int ef;
+
+    private static final int K = 10;
+    private HnswIndex index;
+    private TopKSearch brute;
+    private float[][] queries;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        float[] corpus = EvalData.clustered(size, dim, size / 100, 637);
+        queries = EvalData.noisyQueries(corpus, dim, 256, 0.3f, 99);
+        index = new HnswIndex(corpus, dim, m, 100, 42);
+        brute = new TopKSearch(corpus, dim);
+        Hit[][] truth = EvalData.groundTruth(corpus, dim, queries, K);
+        Hit[][] approx = new Hit[queries.length][];
+        for (int i = 0; i < queries.length; i++) approx[i] = index.search(queries[i], K, ef);
+        System.out.printf("%nM=%d ef=%d: recall@%d = %.3f%n", m, ef, K, EvalData.recall(truth, approx));
+    }
+
+    private float[] nextQuery() {
+        float[] q = queries[next];
+        next = (next + 1) % queries.length;
+        return q;
+    }
+
+    @Benchmark
+    public Hit[] hnsw() {
+        return index.search(nextQuery(), K, ef);
+    }
+
+    @Benchmark
+    public Hit[] bruteForce() {
+        return brute.search(nextQuery(), K);
+    }
+}
@@ -0,0 +1,54 @@
+package com.javafest.aiatspeed.benchmark;
+
+import com.javafest.aiatspeed.search.EvalData;
+import com.javafest.aiatspeed.search.Hit;
+import com.javafest.aiatspeed.search.LshIndex;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Query latency of {@link LshIndex} across tables (L) and bits per table. Recall@10 against brute
+ * force for each configuration is printed once per trial, so the two can be read side by side.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class LshIndexBenchmark {
+    @Param({"100000"})
+    public int size;
+    @Param({"128"})
+    public int dim;
+    @Param({"4", "8", "16"})
+    public int tables;
+    @Param({"12", "16", "20"})
+    public int bits;
+
+    private static final int K = 10;
+    private LshIndex index;
+    private float[][] queries;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        float[] corpus = EvalData.clustered(size, dim, size / 100, 637);
+        queries = EvalData.noisyQueries(corpus, dim, 64, 0.05f, 99);
+        index = new LshIndex(corpus, dim, tables, bits, 42);
+        Hit[][] truth = EvalData.groundTruth(corpus, dim, queries, K);
+        Hit[][] approx = new Hit[queries.length][];
+        long candidates = 0;
+        for (int i = 0; i < queries.length; i++) {
+            approx[i] = index.search(queries[i], K);
+            candidates += index.candidates(queries[i]).length;
+        }
+        System.out.printf("%nL=%d bits=%d: recall@%d = %.3f, avg candidates = %d%n",
+                tables, bits, K, EvalData.recall(truth, approx), candidates / queries.length);
+    }
+
+    @Benchmark
+    public Hit[] query() {
+        float[] q = queries[next];
+        next = (next + 1) % queries.length;
+        return index.search(q, K);
+    }
+}
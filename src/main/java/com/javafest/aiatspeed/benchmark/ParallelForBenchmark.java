@@ -0,0 +1,101 @@
+package com.javafest.aiatspeed.benchmark;
+
+import com.javafest.aiatspeed.kernel.ParallelFor;
+import com.javafest.aiatspeed.kernel.RandomData;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Thread scaling of SIMD loops: a static split into {@code threads} equal chunks versus
+ * {@link ParallelFor}'s aligned, work-stealing splits, on the same dedicated pool. {@code add} is
+ * memory-bound and stops scaling once DRAM bandwidth is saturated; {@code sinSqrt} is compute-bound
+ * and should scale close to the core count.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class ParallelForBenchmark {
+    @Param({"10000000"})
+    public int size;
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+    private float[] a, b, out;
+    private ForkJoinPool pool;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        a = new float[size];
+        b = new float[size];
+        out = new float[size];
+        RandomData.fillUniform(a, 42);
+        RandomData.fillUniform(b, 43);
+        pool = ParallelFor.newPool(threads);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public float[] addStatic() throws ExecutionException, InterruptedException {
+        return staticSplit(ParallelForBenchmark::add);
+    }
+
+    @Benchmark
+    public float[] addParallelFor() {
+        ParallelFor.forRange(pool, size, this::add);
+        return out;
+    }
+
+    @Benchmark
+    public float[] sinSqrtStatic() throws ExecutionException, InterruptedException {
+        return staticSplit(ParallelForBenchmark::sinSqrt);
+    }
+
+    @Benchmark
+    public float[] sinSqrtParallelFor() {
+        ParallelFor.forRange(pool, size, this::sinSqrt);
+        return out;
+    }
+
+    // One equal chunk per thread, as in the original demos (with the loop bound fixed)
+    private float[] staticSplit(Kernel kernel) throws ExecutionException, InterruptedException {
+        int chunk = (size + threads - 1) / threads;
+        pool.submit(() -> IntStream.range(0, threads).parallel()
+                .forEach(t -> kernel.run(this, t * chunk, Math.min(size, (t + 1) * chunk)))).get();
+        return out;
+    }
+
+    private interface Kernel {
+        void run(ParallelForBenchmark s, int from, int to);
+    }
+
+    private void add(int from, int to) {
+        int i = from;
+        int upper = from + SPECIES.loopBound(to - from);
+        for (; i < upper; i += SPECIES.length()) {
+            FloatVector.fromArray(SPECIES, a, i).add(FloatVector.fromArray(SPECIES, b, i)).intoArray(out, i);
+        }
+        for (; i < to; i++) out[i] = a[i] + b[i];
+    }
+
+    private void sinSqrt(int from, int to) {
+        int i = from;
+        int upper = from + SPECIES.loopBound(to - from);
+        for (; i < upper; i += SPECIES.length()) {
+            FloatVector.fromArray(SPECIES, a, i).mul(FloatVector.fromArray(SPECIES, b, i))
+                    .lanewise(VectorOperators.SIN).lanewise(VectorOperators.SQRT).intoArray(out, i);
+        }
+        for (; i < to; i++) out[i] = (float) Math.sqrt(Math.sin(a[i] * b[i]));
+    }
+}
@@ -0,0 +1,233 @@
+package com.javafest.aiatspeed.benchmark;
+
+import com.javafest.aiatspeed.kernel.ArrayExpr;
+import com.javafest.aiatspeed.kernel.KernelProfile;
+import com.javafest.aiatspeed.kernel.ParallelFor;
+import com.javafest.aiatspeed.kernel.RandomData;
+import com.javafest.aiatspeed.kernel.Reductions;
+import com.javafest.aiatspeed.kernel.SegmentKernels;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorSpecies;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
+/**
+ * The machine's memory roofline, and where the existing kernels sit under it.
+ * <p>
+ * The four STREAM loops (copy {@code c = a}, scale {@code b = s*c}, add {@code c = a + b}, triad
+ * {@code a = b + s*c}) do almost no arithmetic, so their speed is the bandwidth of whichever level
+ * holds the arrays. The {@code size} values put three float arrays in L1 (4K elements, 48 KB in total),
+ * L2 (64K), L3 (1M) and DRAM (32M, 384 MB). The {@code threads} values show where the memory
+ * system, not the cores, becomes the limit. As in STREAM, every benchmark splits {@code [0, size)}
+ * into exactly {@code threads} ranges, one task each, cut at multiples of {@link ParallelFor#ALIGN};
+ * the usual {@link ParallelFor#forRange} grain would leave the L1 and L2 sizes on one thread. The
+ * kernels below are the ones the demos use, run under the same sizes and threads:
+ * <pre>
+ *   kernel       bytes/elem  flops/elem  flops/byte
+ *   copy              8          0          0
+ *   scale             8          1          0.125
+ *   add, triad       12        1, 2         0.08-0.17
+ *   dot               8          2          0.25
+ *   cosine            8          6          0.75
+ *   saxpy            12          2          0.17    y = a*s + b on float[] (VectorCapabilities), and
+ *                                                 y += alpha*x on off-heap segments (OffHeapFloats)
+ *   expression       12          6          0.5     sqrt(sqrt(a)*sqrt(b) + a*b), VectorPerformanceDemo
+ * </pre>
+ * Every benchmark adds its traffic and arithmetic to {@link Counters}, which JMH reports as
+ * secondary results. The time unit is the nanosecond, so {@code bytes} reads directly as GB/s and
+ * {@code flops} as GFLOP/s. Bytes are counted as in STREAM: each array read or written once. Write-allocate
+ * reads are left out, so stores into arrays that do not fit in cache move more than is reported.
+ * <p>
+ * To read the result: if a kernel's GB/s at a given size and thread count is close to triad's, it is
+ * bandwidth-bound, and only moving fewer bytes will speed it up (FP16 storage, fused passes, blocking
+ * for cache). If its GB/s is well below triad's while its GFLOP/s stays flat across sizes, it is
+ * compute-bound, and more lanes, more accumulators or cheaper math are what will help.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class StreamBenchmark {
+    @Param({"4096", "65536", "1048576", "33554432"})
+    public int size;
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private static final VectorSpecies<Float> SPECIES = KernelProfile.FLOAT_SPECIES;
+    private static final float SCALAR = 3.0f;
+
+    private float[] a, b, c;
+    private Arena arena;
+    private MemorySegment x, y;
+    private ArrayExpr expression;
+    private float[] partial;
+    private ForkJoinPool pool;
+
+    /** Bytes moved and floating-point operations done, reported per nanosecond: GB/s and GFLOP/s. */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long bytes;
+        public long flops;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+            flops = 0;
+        }
+
+        void add(long elements, int bytesPerElement, int flopsPerElement) {
+            bytes += elements * bytesPerElement;
+            flops += elements * flopsPerElement;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        a = RandomData.uniform(size, 21);
+        b = RandomData.uniform(size, 22);
+        c = RandomData.uniform(size, 23);
+        // The off-heap layout OffHeapFloats uses; saxpy over float[] runs on a, b and c
+        arena = Arena.ofShared();
+        x = arena.allocate((long) size * Float.BYTES, SPECIES.vectorByteSize());
+        y = arena.allocate((long) size * Float.BYTES, SPECIES.vectorByteSize());
+        MemorySegment.copy(a, 0, x, ValueLayout.JAVA_FLOAT, 0, size);
+        MemorySegment.copy(c, 0, y, ValueLayout.JAVA_FLOAT, 0, size);
+        ArrayExpr ea = ArrayExpr.of(a), eb = ArrayExpr.of(b);
+        expression = ea.sqrt().mul(eb.sqrt()).add(ea.mul(eb)).sqrt();
+        partial = new float[3 * threads];
+        pool = ParallelFor.newPool(threads);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdown();
+        arena.close();
+    }
+
+    @Benchmark
+    public float[] copy(Counters n) {
+        forEachRange((from, to) -> System.arraycopy(a, from, c, from, to - from));
+        n.add(size, 8, 0);
+        return c;
+    }
+
+    @Benchmark
+    public float[] scale(Counters n) {
+        forEachRange((from, to) -> {
+            FloatVector s = FloatVector.broadcast(SPECIES, SCALAR);
+            int i = from;
+            int upper = from + SPECIES.loopBound(to - from);
+            for (; i < upper; i += SPECIES.length()) FloatVector.fromArray(SPECIES, c, i).mul(s).intoArray(b, i);
+            for (; i < to; i++) b[i] = SCALAR * c[i];
+        });
+        n.add(size, 8, 1);
+        return b;
+    }
+
+    @Benchmark
+    public float[] add(Counters n) {
+        forEachRange((from, to) -> {
+            int i = from;
+            int upper = from + SPECIES.loopBound(to - from);
+            for (; i < upper; i += SPECIES.length()) {
+                FloatVector.fromArray(SPECIES, a, i).add(FloatVector.fromArray(SPECIES, b, i)).intoArray(c, i);
+            }
+            for (; i < to; i++) c[i] = a[i] + b[i];
+        });
+        n.add(size, 12, 1);
+        return c;
+    }
+
+    @Benchmark
+    public float[] triad(Counters n) {
+        forEachRange((from, to) -> {
+            FloatVector s = FloatVector.broadcast(SPECIES, SCALAR);
+            int i = from;
+            int upper = from + SPECIES.loopBound(to - from);
+            for (; i < upper; i += SPECIES.length()) {
+                FloatVector.fromArray(SPECIES, c, i).mul(s).add(FloatVector.fromArray(SPECIES, b, i)).intoArray(a, i);
+            }
+            for (; i < to; i++) a[i] = b[i] + SCALAR * c[i];
+        });
+        n.add(size, 12, 2);
+        return a;
+    }
+
+    @Benchmark
+    public float dot(Counters n) {
+        forEachThread(t -> partial[t] = Reductions.dot(a, start(t), b, start(t), start(t + 1) - start(t)));
+        double s = 0.0;
+        for (int t = 0; t < threads; t++) s += partial[t];
+        n.add(size, 8, 2);
+        return (float) s;
+    }
+
+    @Benchmark
+    public float cosine(Counters n) {
+        forEachThread(t -> Reductions.cosineParts(a, start(t), b, start(t), start(t + 1) - start(t), partial, 3 * t));
+        double dot = 0.0, na = 0.0, nb = 0.0;
+        for (int t = 0; t < threads; t++) {
+            dot += partial[3 * t];
+            na += partial[3 * t + 1];
+            nb += partial[3 * t + 2];
+        }
+        n.add(size, 8, 6);
+        return (float) (dot / (Math.sqrt(na) * Math.sqrt(nb)));
+    }
+
+    // VectorCapabilities.quickBenchSaxpyFloat's kernel, c = a * s + b, split over the pool
+    @Benchmark
+    public float[] saxpy(Counters n) {
+        forEachRange((from, to) -> {
+            FloatVector s = FloatVector.broadcast(SPECIES, SCALAR);
+            int i = from;
+            int upper = from + SPECIES.loopBound(to - from);
+            for (; i < upper; i += SPECIES.length()) {
+                FloatVector.fromArray(SPECIES, a, i).mul(s).add(FloatVector.fromArray(SPECIES, b, i)).intoArray(c, i);
+            }
+            for (; i < to; i++) c[i] = a[i] * SCALAR + b[i];
+        });
+        n.add(size, 12, 2);
+        return c;
+    }
+
+    // y += alpha * x off-heap, as in OffHeapFloats; alpha is small so y stays finite over a long run
+    @Benchmark
+    public MemorySegment saxpySegment(Counters n) {
+        forEachRange((from, to) ->
+                SegmentKernels.saxpy(1e-6f, x, (long) from * Float.BYTES, y, (long) from * Float.BYTES, to - from));
+        n.add(size, 12, 2);
+        return y;
+    }
+
+    // Three sqrt, two mul, one add per element; sqrt is counted as one flop although it costs far more
+    @Benchmark
+    public float[] expression(Counters n) {
+        forEachRange((from, to) -> expression.evalInto(c, from, to));
+        n.add(size, 12, 6);
+        return c;
+    }
+
+    // Start of thread t's range; start(threads) is size
+    private int start(int t) {
+        return t == threads ? size : (int) ((long) size * t / threads) & -ParallelFor.ALIGN;
+    }
+
+    // One task per thread index, on the benchmark's pool
+    private void forEachThread(IntConsumer body) {
+        ParallelFor.forTasks(pool, threads, (from, to) -> {
+            for (int t = from; t < to; t++) body.accept(t);
+        });
+    }
+
+    // Thread t runs body over [start(t), start(t + 1))
+    private void forEachRange(ParallelFor.Body body) {
+        forEachThread(t -> body.run(start(t), start(t + 1)));
+    }
+}
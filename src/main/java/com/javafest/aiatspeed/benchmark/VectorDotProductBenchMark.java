@@ -1,17 +1,19 @@
 package com.javafest.aiatspeed.benchmark;
 
+import com.javafest.aiatspeed.kernel.RandomData;
+import com.javafest.aiatspeed.kernel.Reductions;
 import org.openjdk.jmh.annotations.*;
 import module jdk.incubator.vector;
 
 import java.util.concurrent.TimeUnit;
-import java.util.Random;
 
 @BenchmarkMode(Mode.AverageTime)
 @OutputTimeUnit(TimeUnit.MILLISECONDS)
 @State(Scope.Thread)
 public class VectorDotProductBenchMark {
 
-    @Param({"10000"})
+    // 1K floats per array fits L1, 10K fits L2: where the single accumulator chain loses most
+    @Param({"1024", "10000"})
     public int size;
 
     private float[] a, b;
@@ -21,8 +23,8 @@ public class VectorDotProductBenchMark {
     public void setup() {
         a = new float[size];
         b = new float[size];
-        Random r = new Random(123);
-        for (int i = 0; i < size; i++) { a[i] = r.nextFloat(); b[i] = r.nextFloat(); }
+        RandomData.fillUniform(a, 123);
+        RandomData.fillUniform(b, 124);
     }
 
     @Benchmark
@@ -42,13 +44,26 @@ public class VectorDotProductBenchMark {
             FloatVector vb = FloatVector.fromArray(SPECIES, b, i);
             acc = acc.add(va.mul(vb));
         }
-        float sum = 0f;
-        float[] tmp = new float[SPECIES.length()];
-        acc.intoArray(tmp, 0);
-        for (float v : tmp) sum += v;
+        float sum = acc.reduceLanes(VectorOperators.ADD);
         for (; i < a.length; i++) sum += a[i] * b[i];
         return sum;
     }
+
+    @Benchmark
+    public float vectorDotUnrolled2() {
+        return Reductions.dot2(a, 0, b, 0, a.length);
+    }
+
+    @Benchmark
+    public float vectorDotUnrolled4() {
+        return Reductions.dot4(a, 0, b, 0, a.length);
+    }
+
+    @Benchmark
+    public float vectorDotUnrolled8() {
+        return Reductions.dot8(a, 0, b, 0, a.length);
+    }
+
     public static void main(String[] args) throws Exception {
         org.openjdk.jmh.Main.main(args);
     }
@@ -1,5 +1,6 @@
 package com.javafest.aiatspeed.cosine;
 
+import com.javafest.aiatspeed.benchmark.CosineSimilarityVector;
 import jdk.incubator.vector.FloatVector;
 import jdk.incubator.vector.VectorOperators;
 import jdk.incubator.vector.VectorSpecies;
@@ -19,11 +20,15 @@ public class CosineSimilarityComparison {
 
         float[] a = generateRandomArray(size);
         float[] b = generateRandomArray(size);
+        // Normalize once "at ingest"; afterwards cosine is a single dot-product pass
+        float[] unitA = CosineSimilarityVector.normalize(a);
+        float[] unitB = CosineSimilarityVector.normalize(b);
 
         // Warm-up to trigger JIT optimization
         for (int i = 0; i < 10; i++) {
             cosineSimilarityScalar(a, b);
             cosineSimilarityVector(a, b);
+            cosineSimilarityNormalized(unitA, unitB);
         }
 
         long startTime = System.nanoTime();
@@ -34,9 +39,14 @@ public class CosineSimilarityComparison {
         float vectorResult = cosineSimilarityVector(a, b);
         long vectorTime = System.nanoTime() - startTime;
 
+        startTime = System.nanoTime();
+        float normalizedResult = cosineSimilarityNormalized(unitA, unitB);
+        long normalizedTime = System.nanoTime() - startTime;
+
         System.out.println("===== Cosine Similarity Performance Comparison =====");
         System.out.println("Scalar Result: " + scalarResult + " | Time (ns): " + scalarTime);
         System.out.println("Vector Result: " + vectorResult + " | Time (ns): " + vectorTime);
+        System.out.println("Pre-normalized Vector Result: " + normalizedResult + " | Time (ns): " + normalizedTime);
 
         double speedup = (double) scalarTime / vectorTime;
         System.out.printf("⚡ SIMD Speedup: %.2fx faster than scalar%n", speedup);
@@ -88,6 +98,11 @@ public class CosineSimilarityComparison {
         return (float) (dot / (Math.sqrt(magA) * Math.sqrt(magB)));
     }
 
+    // Pre-normalized inputs: |a| = |b| = 1, so cosine reduces to one FMA chain instead of three
+    public static float cosineSimilarityNormalized(float[] unitA, float[] unitB) {
+        return CosineSimilarityVector.dot(unitA, 0, unitB, 0, unitA.length);
+    }
+
     private static float[] generateRandomArray(int size) {
         Random random = new Random();
         float[] array = new float[size];
@@ -2,7 +2,10 @@
  * @author dmorye
  **/
 package com.javafest.aiatspeed.cpu;
-import java.util.Random;
+
+import com.javafest.aiatspeed.kernel.FilterKernels;
+import com.javafest.aiatspeed.kernel.RandomData;
+import java.util.Arrays;
 
 public class BranchPredictionDemo {
 
@@ -12,13 +15,9 @@ public class BranchPredictionDemo {
     private static final boolean[] randomFlags = new boolean[SIZE];
 
     public static void main(String[] args) {
-        Random rand = new Random(42); // fixed seed for repeatability
-
-        // Fill arrays
-        for (int i = 0; i < SIZE; i++) {
-            data[i] = i+1;
-            randomFlags[i] = rand.nextBoolean();
-        }
+        // Fill arrays in parallel; the flags depend only on the seed, not on the thread count
+        Arrays.parallelSetAll(data, i -> i + 1);
+        RandomData.fillBooleans(randomFlags, 42);
 
         // Warm up
         predictable();
@@ -38,6 +37,14 @@ public class BranchPredictionDemo {
                 (end1 - start1) / 1_000_000.0, sum1);
         System.out.printf("Unpredictable Branch Time: %.2f ms (sum=%d)%n",
                 (end2 - start2) / 1_000_000.0, sum2);
+
+        // The fix: the same random flags as a SIMD mask, no branch at all
+        FilterKernels.sum(data, randomFlags);
+        long start3 = System.nanoTime();
+        long sum3 = FilterKernels.sum(data, randomFlags);
+        long end3 = System.nanoTime();
+        System.out.printf("Masked (branch-free) Time: %.2f ms (sum=%d)%n",
+                (end3 - start3) / 1_000_000.0, sum3);
     }
 
     private static long predictable() {
@@ -0,0 +1,195 @@
+package com.javafest.aiatspeed.io;
+
+import com.javafest.aiatspeed.kernel.SegmentKernels;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A binary embedding corpus, memory-mapped read-only.
+ * <p>
+ * Layout, all little-endian:
+ * <pre>
+ * offset  size  field
+ *      0     8  magic "AIEMBED\0"
+ *      8     4  version (1)
+ *     12     4  dtype (0 = float32)
+ *     16     4  dim
+ *     20     4  row stride in bytes: dim * 4 rounded up to a multiple of 64
+ *     24     8  count (rows)
+ *     32    32  reserved, zero
+ *     64        rows: row r starts at 64 + r * stride, zero-padded to the stride
+ * </pre>
+ * The mapping starts on a page boundary, so every row starts on a 64-byte cache line, and vector
+ * loads never split a line. Opening a file only reads the header. Rows are paged in by the OS
+ * on first touch and live in the page cache, not on the Java heap, so several JVMs on one host share
+ * a single copy, and a restarted JVM finds the pages still warm.
+ * <p>
+ * Rows are scored in place by {@link SegmentKernels}; {@link #rowOffset} gives the byte offset.
+ * Closing the file unmaps it, and any later access to {@link #segment()} throws.
+ */
+public final class EmbeddingFile implements AutoCloseable {
+
+    public static final int HEADER_BYTES = 64;
+    public static final int ROW_ALIGN = 64;
+    public static final int VERSION = 1;
+    public static final int DTYPE_FLOAT32 = 0;
+    private static final long MAGIC = 0x0044_4542_4D45_4941L; // "AIEMBED\0" read as a little-endian long
+
+    private static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final ValueLayout.OfLong LONG = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+    private final Arena arena;
+    private final MemorySegment segment;
+    private final int dim;
+    private final long count;
+    private final long stride;
+
+    private EmbeddingFile(Arena arena, MemorySegment segment, int dim, long count, long stride) {
+        this.arena = arena;
+        this.segment = segment;
+        this.dim = dim;
+        this.count = count;
+        this.stride = stride;
+    }
+
+    /**
+     * Maps {@code path}; the mapping is shared, so rows may be scored from any thread.
+     */
+    public static EmbeddingFile open(Path path) throws IOException {
+        Arena arena = Arena.ofShared();
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size < HEADER_BYTES) throw new IllegalArgumentException(path + ": too short for an embedding file header");
+            MemorySegment seg = ch.map(FileChannel.MapMode.READ_ONLY, 0, size, arena);
+            if (seg.get(LONG, 0) != MAGIC) throw new IllegalArgumentException(path + ": not an embedding file");
+            int version = seg.get(INT, 8);
+            if (version != VERSION) throw new IllegalArgumentException(path + ": unsupported version " + version);
+            int dtype = seg.get(INT, 12);
+            if (dtype != DTYPE_FLOAT32) throw new IllegalArgumentException(path + ": unsupported dtype " + dtype);
+            int dim = seg.get(INT, 16);
+            int stride = seg.get(INT, 20);
+            long count = seg.get(LONG, 24);
+            if (dim <= 0 || stride != strideFor(dim) || count < 0 || HEADER_BYTES + count * stride != size)
+                throw new IllegalArgumentException(path + ": corrupt header (dim=" + dim + ", stride=" + stride
+                        + ", count=" + count + ", file size=" + size + ")");
+            return new EmbeddingFile(arena, seg, dim, count, stride);
+        } catch (IOException | RuntimeException e) {
+            arena.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes a flat row-major corpus of {@code corpus.length / dim} rows.
+     */
+    public static void write(Path path, float[] corpus, int dim) throws IOException {
+        if (dim <= 0 || corpus.length % dim != 0)
+            throw new IllegalArgumentException("corpus length " + corpus.length + " is not a multiple of dim " + dim);
+        try (Writer w = new Writer(path, dim, corpus.length / dim)) {
+            for (int r = 0; r < corpus.length / dim; r++) w.append(corpus, r * dim);
+        }
+    }
+
+    /**
+     * Writes rows of equal length; they are checked before the file is opened.
+     */
+    public static void write(Path path, float[][] rows) throws IOException {
+        if (rows.length == 0) throw new IllegalArgumentException("no rows to take the dimension from");
+        int dim = rows[0].length;
+        for (int r = 0; r < rows.length; r++) {
+            if (rows[r].length != dim)
+                throw new IllegalArgumentException("row " + r + " has " + rows[r].length + " dims, expected " + dim);
+        }
+        try (Writer w = new Writer(path, dim, rows.length)) {
+            for (float[] row : rows) w.append(row, 0);
+        }
+    }
+
+    static int strideFor(int dim) {
+        return (dim * Float.BYTES + ROW_ALIGN - 1) / ROW_ALIGN * ROW_ALIGN;
+    }
+
+    public int dim() {
+        return dim;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    /** Bytes between consecutive rows; a multiple of 64. */
+    public long stride() {
+        return stride;
+    }
+
+    /** Byte offset of row {@code r} in {@link #segment()}. */
+    public long rowOffset(long r) {
+        return HEADER_BYTES + r * stride;
+    }
+
+    /** The whole mapped file, header included. */
+    public MemorySegment segment() {
+        return segment;
+    }
+
+    /** Copies row {@code r} to the heap. */
+    public float[] row(long r) {
+        if (r < 0 || r >= count) throw new IndexOutOfBoundsException("row " + r + " of " + count);
+        float[] v = new float[dim];
+        MemorySegment.copy(segment, SegmentKernels.FLOAT, rowOffset(r), v, 0, dim);
+        return v;
+    }
+
+    @Override
+    public void close() {
+        arena.close();
+    }
+
+    // Streams rows through a direct buffer, so writing never needs the whole file in memory
+    private static final class Writer implements AutoCloseable {
+        private final FileChannel ch;
+        private final ByteBuffer buf;
+        private final int dim;
+        private final int stride;
+
+        Writer(Path path, int dim, long count) throws IOException {
+            this.ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE);
+            this.dim = dim;
+            this.stride = strideFor(dim);
+            this.buf = ByteBuffer.allocateDirect(Math.max(1 << 20, stride)).order(ByteOrder.LITTLE_ENDIAN);
+            buf.putLong(MAGIC).putInt(VERSION).putInt(DTYPE_FLOAT32).putInt(dim).putInt(stride).putLong(count);
+            buf.position(HEADER_BYTES);
+        }
+
+        void append(float[] src, int offset) throws IOException {
+            if (buf.remaining() < stride) flush();
+            int start = buf.position();
+            for (int j = 0; j < dim; j++) buf.putFloat(src[offset + j]);
+            while (buf.position() < start + stride) buf.put((byte) 0);
+        }
+
+        private void flush() throws IOException {
+            buf.flip();
+            while (buf.hasRemaining()) ch.write(buf);
+            buf.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                ch.close();
+            }
+        }
+    }
+}
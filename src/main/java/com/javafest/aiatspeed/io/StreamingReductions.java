@@ -0,0 +1,176 @@
+package com.javafest.aiatspeed.io;
+
+import com.javafest.aiatspeed.kernel.SegmentKernels;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * Out-of-core dot product and cosine for float vectors stored in files, however large.
+ * <p>
+ * Inputs are raw little-endian float32, with no header. Each input is read by its own
+ * {@link ChunkReader}, so the reads of chunk n+1 of both files overlap the SIMD work on chunk n. Each
+ * chunk pair is split into {@link #SUB_CHUNK}-element pieces, which are scored by
+ * {@link SegmentKernels} on the fork-join pool. The dot and norm partials are carried across chunks
+ * in {@code double}, in file order, so the result does not depend on the thread count. Peak memory
+ * is four chunk buffers (two per file), whatever the file size.
+ * <p>
+ * The compute is a few FMAs per 8 bytes read, much faster than any disk delivers those bytes, so
+ * throughput is bounded by the disk (or by memory bandwidth when the files sit in the page cache).
+ */
+public final class StreamingReductions {
+
+    /** Default bytes per read: large enough to amortise the syscall and seek per read. */
+    public static final int DEFAULT_CHUNK_BYTES = 8 << 20;
+    /** Elements per fork-join task; matches {@code OffHeapFloats}, so the summation order is the same. */
+    static final int SUB_CHUNK = 1 << 16;
+
+    private StreamingReductions() {
+    }
+
+    /** Dot product of two raw float32 files of equal size. */
+    public static double dot(Path a, Path b) throws IOException {
+        try (FileChannel ca = FileChannel.open(a, StandardOpenOption.READ);
+             FileChannel cb = FileChannel.open(b, StandardOpenOption.READ)) {
+            return dot(ca, 0, cb, 0, floatCount(ca, cb), DEFAULT_CHUNK_BYTES);
+        }
+    }
+
+    /** Cosine similarity of two raw float32 files of equal size. */
+    public static double cosine(Path a, Path b) throws IOException {
+        try (FileChannel ca = FileChannel.open(a, StandardOpenOption.READ);
+             FileChannel cb = FileChannel.open(b, StandardOpenOption.READ)) {
+            return cosine(ca, 0, cb, 0, floatCount(ca, cb), DEFAULT_CHUNK_BYTES);
+        }
+    }
+
+    /**
+     * Dot product of {@code count} floats starting at byte {@code aPosition} of {@code a} and byte
+     * {@code bPosition} of {@code b}.
+     *
+     * @param chunkBytes bytes per read and per file; a multiple of 64
+     */
+    public static double dot(FileChannel a, long aPosition, FileChannel b, long bPosition, long count,
+                             int chunkBytes) throws IOException {
+        double sum = 0.0;
+        try (ChunkReader ra = new ChunkReader(a, aPosition, count * Float.BYTES, chunkBytes);
+             ChunkReader rb = new ChunkReader(b, bPosition, count * Float.BYTES, chunkBytes)) {
+            MemorySegment sa, sb;
+            while ((sa = ra.next()) != null && (sb = rb.next()) != null) {
+                MemorySegment x = sa, y = sb;
+                int n = (int) (x.byteSize() / Float.BYTES);
+                float[] partial = new float[subChunks(n)];
+                IntStream.range(0, partial.length).parallel().forEach(c -> {
+                    long off = (long) c * SUB_CHUNK * Float.BYTES;
+                    partial[c] = SegmentKernels.dot(x, off, y, off, Math.min(SUB_CHUNK, n - c * SUB_CHUNK));
+                });
+                for (float p : partial) sum += p;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Cosine similarity of {@code count} floats starting at byte {@code aPosition} of {@code a} and
+     * byte {@code bPosition} of {@code b}; 0 if either vector is all zeros.
+     *
+     * @param chunkBytes bytes per read and per file; a multiple of 64
+     */
+    public static double cosine(FileChannel a, long aPosition, FileChannel b, long bPosition, long count,
+                                int chunkBytes) throws IOException {
+        double dot = 0.0, na = 0.0, nb = 0.0;
+        try (ChunkReader ra = new ChunkReader(a, aPosition, count * Float.BYTES, chunkBytes);
+             ChunkReader rb = new ChunkReader(b, bPosition, count * Float.BYTES, chunkBytes)) {
+            MemorySegment sa, sb;
+            while ((sa = ra.next()) != null && (sb = rb.next()) != null) {
+                MemorySegment x = sa, y = sb;
+                int n = (int) (x.byteSize() / Float.BYTES);
+                int chunks = subChunks(n);
+                float[] partial = new float[3 * chunks];
+                IntStream.range(0, chunks).parallel().forEach(c -> {
+                    long off = (long) c * SUB_CHUNK * Float.BYTES;
+                    SegmentKernels.cosineParts(x, off, y, off, Math.min(SUB_CHUNK, n - c * SUB_CHUNK), partial, 3 * c);
+                });
+                for (int c = 0; c < chunks; c++) {
+                    dot += partial[3 * c];
+                    na += partial[3 * c + 1];
+                    nb += partial[3 * c + 2];
+                }
+            }
+        }
+        double denom = Math.sqrt(na) * Math.sqrt(nb);
+        return denom == 0.0 ? 0.0 : dot / denom;
+    }
+
+    /**
+     * Writes {@code count} uniform floats in [-0.5, 0.5) as raw little-endian float32, streaming through
+     * a 1 MB buffer.
+     */
+    public static void writeRandom(Path path, long count, long seed) throws IOException {
+        SplittableRandom r = new SplittableRandom(seed);
+        ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            for (long i = 0; i < count; i++) {
+                if (!buf.hasRemaining()) {
+                    buf.flip();
+                    while (buf.hasRemaining()) ch.write(buf);
+                    buf.clear();
+                }
+                buf.putFloat((float) r.nextDouble() - 0.5f);
+            }
+            buf.flip();
+            while (buf.hasRemaining()) ch.write(buf);
+        }
+    }
+
+    private static long floatCount(FileChannel a, FileChannel b) throws IOException {
+        long size = a.size();
+        if (size != b.size()) throw new IllegalArgumentException("size mismatch: " + size + " vs " + b.size() + " bytes");
+        if (size % Float.BYTES != 0) throw new IllegalArgumentException(size + " bytes is not a whole number of floats");
+        return size / Float.BYTES;
+    }
+
+    private static int subChunks(int n) {
+        return (n + SUB_CHUNK - 1) / SUB_CHUNK;
+    }
+
+    /**
+     * Usage: {@code StreamingReductions [floats-per-file [dir]]}; the default, 512M floats, is two 2 GB
+     * files. Pick a size past physical memory to measure the disk rather than the page cache.
+     */
+    public static void main(String[] args) throws IOException {
+        long n = args.length > 0 ? Long.parseLong(args[0]) : 512L << 20;
+        Path dir = args.length > 1 ? Path.of(args[1]) : Path.of(System.getProperty("java.io.tmpdir"));
+        Path a = Files.createTempFile(dir, "stream-a", ".f32");
+        Path b = Files.createTempFile(dir, "stream-b", ".f32");
+        try {
+            long t0 = System.nanoTime();
+            writeRandom(a, n, 1);
+            writeRandom(b, n, 2);
+            long bytes = 2 * n * Float.BYTES;
+            System.out.printf("Wrote 2 x %,d floats (%d MB) in %d ms%n", n, bytes >> 20, (System.nanoTime() - t0) / 1_000_000);
+            System.out.printf("Window: 4 x %d MB buffers, heap used %d MB%n", DEFAULT_CHUNK_BYTES >> 20,
+                    (Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) >> 20);
+
+            t0 = System.nanoTime();
+            double d = dot(a, b);
+            long t1 = System.nanoTime();
+            double cos = cosine(a, b);
+            long t2 = System.nanoTime();
+            System.out.printf("dot    %6d ms, %7.1f MB/s (%.6g)%n", (t1 - t0) / 1_000_000, bytes * 1e3 / (t1 - t0), d);
+            System.out.printf("cosine %6d ms, %7.1f MB/s (%.6f)%n", (t2 - t1) / 1_000_000, bytes * 1e3 / (t2 - t1), cos);
+        } finally {
+            Files.deleteIfExists(a);
+            Files.deleteIfExists(b);
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package com.javafest.aiatspeed.kernel;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Lazy element-wise expression over {@code float[]} arrays, evaluated in one fused pass.
+ * <p>
+ * Building an expression does no work:
+ * {@code ArrayExpr.of(a).mul(ArrayExpr.of(b)).add(1f).sqrt().evalInto(out)} reads {@code a} and
+ * {@code b} once and writes {@code out} once. Evaluating the same thing as separate array operations would
+ * write and re-read a full-size temporary per step, and for large arrays every one of those round
+ * trips goes to DRAM.
+ * <p>
+ * Evaluation walks the arrays in blocks of {@link #BLOCK} elements. For each block every operator runs
+ * one tight {@link FloatVector} loop, with a masked iteration for the block's tail instead of a scalar
+ * loop. Its result goes to a block-sized scratch buffer, so intermediates live in L1 and never reach
+ * memory. Inputs are read in place, and the root writes straight into the output. Dispatch on the
+ * operator happens once per block, not per element.
+ */
+public abstract class ArrayExpr {
+
+    static final VectorSpecies<Float> SPECIES = KernelProfile.FLOAT_SPECIES;
+    private static final int L = SPECIES.length();
+    /** Elements per block: 4 KB per intermediate, so a deep expression's buffers still fit in L1. */
+    static final int BLOCK = 1024;
+
+    private enum Op { NEG, ABS, SQRT, EXP, LOG, SIN, COS, ADD, SUB, MUL, DIV, MIN, MAX, FMA }
+
+    /** Array length, or -1 for an expression made only of constants. */
+    final int length;
+    /** Scratch buffers needed to evaluate this node's children. */
+    final int buffers;
+
+    private ArrayExpr(int length, int buffers) {
+        this.length = length;
+        this.buffers = buffers;
+    }
+
+    public static ArrayExpr of(float[] a) {
+        return new Input(a);
+    }
+
+    public static ArrayExpr constant(float c) {
+        return new Constant(c);
+    }
+
+    public ArrayExpr add(ArrayExpr o) { return new Node(Op.ADD, this, o, null); }
+    public ArrayExpr sub(ArrayExpr o) { return new Node(Op.SUB, this, o, null); }
+    public ArrayExpr mul(ArrayExpr o) { return new Node(Op.MUL, this, o, null); }
+    public ArrayExpr div(ArrayExpr o) { return new Node(Op.DIV, this, o, null); }
+    public ArrayExpr min(ArrayExpr o) { return new Node(Op.MIN, this, o, null); }
+    public ArrayExpr max(ArrayExpr o) { return new Node(Op.MAX, this, o, null); }
+
+    public ArrayExpr add(float c) { return add(constant(c)); }
+    public ArrayExpr sub(float c) { return sub(constant(c)); }
+    public ArrayExpr mul(float c) { return mul(constant(c)); }
+    public ArrayExpr div(float c) { return div(constant(c)); }
+    public ArrayExpr min(float c) { return min(constant(c)); }
+    public ArrayExpr max(float c) { return max(constant(c)); }
+
+    /** {@code this * b + c} with a single rounding. */
+    public ArrayExpr fma(ArrayExpr b, ArrayExpr c) { return new Node(Op.FMA, this, b, c); }
+
+    public ArrayExpr neg() { return new Node(Op.NEG, this, null, null); }
+    public ArrayExpr abs() { return new Node(Op.ABS, this, null, null); }
+    public ArrayExpr sqrt() { return new Node(Op.SQRT, this, null, null); }
+    public ArrayExpr exp() { return new Node(Op.EXP, this, null, null); }
+    public ArrayExpr log() { return new Node(Op.LOG, this, null, null); }
+    public ArrayExpr sin() { return new Node(Op.SIN, this, null, null); }
+    public ArrayExpr cos() { return new Node(Op.COS, this, null, null); }
+
+    public int length() {
+        return length;
+    }
+
+    /** Evaluates into a new array. */
+    public float[] eval() {
+        float[] out = new float[checkedLength()];
+        evalRange(out, 0, out.length);
+        return out;
+    }
+
+    public void evalInto(float[] out) {
+        checkOutput(out);
+        evalRange(out, 0, length);
+    }
+
+    /** Evaluates elements {@code [from, to)} into {@code out[from, to)}, for callers that split the work themselves. */
+    public void evalInto(float[] out, int from, int to) {
+        checkOutput(out);
+        if (from < 0 || from > to || to > length)
+            throw new IllegalArgumentException("range [" + from + ", " + to + ") outside [0, " + length + ")");
+        evalRange(out, from, to);
+    }
+
+    /** Like {@link #evalInto}, with ranges of blocks spread over the {@link ParallelFor} pool. */
+    public void evalIntoParallel(float[] out) {
+        evalIntoParallel(ParallelFor.pool(), out);
+    }
+
+    /** Like {@link #evalIntoParallel(float[])}, on the given pool. */
+    public void evalIntoParallel(ForkJoinPool pool, float[] out) {
+        checkOutput(out);
+        ParallelFor.forRange(pool, length, (from, to) -> evalRange(out, from, to));
+    }
+
+    /** Sum of all elements, reduced block by block without materializing the expression. */
+    public float sum() {
+        int n = checkedLength();
+        float[][] scratch = new float[buffers + 1][BLOCK];
+        float[] block = scratch[buffers];
+        double sum = 0.0;
+        for (int b = 0; b < n; b += BLOCK) {
+            int len = Math.min(BLOCK, n - b);
+            evalBlock(scratch, 0, b, len, block, 0);
+            sum += Reductions.sum(block, 0, len);
+        }
+        return (float) sum;
+    }
+
+    private void evalRange(float[] out, int from, int to) {
+        float[][] scratch = new float[buffers][BLOCK];
+        for (int b = from; b < to; b += BLOCK) evalBlock(scratch, 0, b, Math.min(BLOCK, to - b), out, b);
+    }
+
+    private int checkedLength() {
+        if (length < 0) throw new IllegalArgumentException("expression has no array input, so no length");
+        return length;
+    }
+
+    private void checkOutput(float[] out) {
+        if (out.length != checkedLength())
+            throw new IllegalArgumentException("output length " + out.length + " does not match expression length " + length);
+    }
+
+    /**
+     * Writes elements {@code [from, from+n)} of this expression to {@code dst[dstOff ..)}, using
+     * {@code scratch[base ..)} for intermediate results.
+     */
+    abstract void evalBlock(float[][] scratch, int base, int from, int n, float[] dst, int dstOff);
+
+    /** An array or a constant: read in place by its parent instead of being evaluated into scratch. */
+    private abstract static class Leaf extends ArrayExpr {
+        Leaf(int length) {
+            super(length, 0);
+        }
+
+        /** The array holding this leaf's values. */
+        abstract float[] source();
+
+        /** Index in {@link #source()} of element {@code from}. */
+        abstract int sourceOffset(int from);
+
+        @Override
+        void evalBlock(float[][] scratch, int base, int from, int n, float[] dst, int dstOff) {
+            System.arraycopy(source(), sourceOffset(from), dst, dstOff, n);
+        }
+    }
+
+    private static final class Input extends Leaf {
+        private final float[] a;
+
+        Input(float[] a) {
+            super(a.length);
+            this.a = a;
+        }
+
+        @Override float[] source() { return a; }
+        @Override int sourceOffset(int from) { return from; }
+    }
+
+    private static final class Constant extends Leaf {
+        private final float[] block = new float[BLOCK];
+
+        Constant(float c) {
+            super(-1);
+            Arrays.fill(block, c);
+        }
+
+        @Override float[] source() { return block; }
+        @Override int sourceOffset(int from) { return 0; }
+    }
+
+    private static final class Node extends ArrayExpr {
+        private final Op op;
+        private final ArrayExpr x, y, z;
+
+        Node(Op op, ArrayExpr x, ArrayExpr y, ArrayExpr z) {
+            super(combinedLength(x, y, z), buffersFor(x, y, z));
+            this.op = op;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        // Child k writes its result to scratch[base + k] and uses scratch[base + k + 1 ..) internally
+        private static int buffersFor(ArrayExpr... children) {
+            int need = 0;
+            for (int k = 0; k < children.length; k++) {
+                ArrayExpr c = children[k];
+                if (c != null && !(c instanceof Leaf)) need = Math.max(need, k + 1 + c.buffers);
+            }
+            return need;
+        }
+
+        private static int combinedLength(ArrayExpr... children) {
+            int length = -1;
+            for (ArrayExpr c : children) {
+                if (c == null || c.length < 0) continue;
+                if (length >= 0 && c.length != length)
+                    throw new IllegalArgumentException("length mismatch: " + length + " vs " + c.length);
+                length = c.length;
+            }
+            return length;
+        }
+
+        private static float[] operand(ArrayExpr c, float[][] scratch, int slot, int from, int n) {
+            if (c instanceof Leaf leaf) return leaf.source();
+            c.evalBlock(scratch, slot + 1, from, n, scratch[slot], 0);
+            return scratch[slot];
+        }
+
+        @Override
+        void evalBlock(float[][] scratch, int base, int from, int n, float[] dst, int dstOff) {
+            float[] xa = operand(x, scratch, base, from, n);
+            int xo = x instanceof Leaf leaf ? leaf.sourceOffset(from) : 0;
+            if (y == null) {
+                unary(op, xa, xo, n, dst, dstOff);
+                return;
+            }
+            float[] ya = operand(y, scratch, base + 1, from, n);
+            int yo = y instanceof Leaf leaf ? leaf.sourceOffset(from) : 0;
+            if (z == null) {
+                binary(op, xa, xo, ya, yo, n, dst, dstOff);
+                return;
+            }
+            float[] za = operand(z, scratch, base + 2, from, n);
+            int zo = z instanceof Leaf leaf ? leaf.sourceOffset(from) : 0;
+            ternaryFma(xa, xo, ya, yo, za, zo, n, dst, dstOff);
+        }
+    }
+
+    // One loop per operator kind; the switch picks the lane operation and is hoisted by the JIT
+
+    private static void unary(Op op, float[] xa, int xo, int n, float[] dst, int dstOff) {
+        int i = 0;
+        int upper = SPECIES.loopBound(n);
+        for (; i < upper; i += L) {
+            apply(op, FloatVector.fromArray(SPECIES, xa, xo + i)).intoArray(dst, dstOff + i);
+        }
+        if (i < n) {
+            VectorMask<Float> m = SPECIES.indexInRange(i, n);
+            apply(op, FloatVector.fromArray(SPECIES, xa, xo + i, m)).intoArray(dst, dstOff + i, m);
+        }
+    }
+
+    private static void binary(Op op, float[] xa, int xo, float[] ya, int yo, int n, float[] dst, int dstOff) {
+        int i = 0;
+        int upper = SPECIES.loopBound(n);
+        for (; i < upper; i += L) {
+            apply(op, FloatVector.fromArray(SPECIES, xa, xo + i), FloatVector.fromArray(SPECIES, ya, yo + i))
+                    .intoArray(dst, dstOff + i);
+        }
+        if (i < n) {
+            VectorMask<Float> m = SPECIES.indexInRange(i, n);
+            apply(op, FloatVector.fromArray(SPECIES, xa, xo + i, m), FloatVector.fromArray(SPECIES, ya, yo + i, m))
+                    .intoArray(dst, dstOff + i, m);
+        }
+    }
+
+    private static void ternaryFma(float[] xa, int xo, float[] ya, int yo, float[] za, int zo, int n, float[] dst, int dstOff) {
+        int i = 0;
+        int upper = SPECIES.loopBound(n);
+        for (; i < upper; i += L) {
+            FloatVector.fromArray(SPECIES, xa, xo + i)
+                    .fma(FloatVector.fromArray(SPECIES, ya, yo + i), FloatVector.fromArray(SPECIES, za, zo + i))
+                    .intoArray(dst, dstOff + i);
+        }
+        if (i < n) {
+            VectorMask<Float> m = SPECIES.indexInRange(i, n);
+            FloatVector.fromArray(SPECIES, xa, xo + i, m)
+                    .fma(FloatVector.fromArray(SPECIES, ya, yo + i, m), FloatVector.fromArray(SPECIES, za, zo + i, m))
+                    .intoArray(dst, dstOff + i, m);
+        }
+    }
+
+    private static FloatVector apply(Op op, FloatVector v) {
+        return switch (op) {
+            case NEG -> v.neg();
+            case ABS -> v.abs();
+            case SQRT -> v.sqrt();
+            case EXP -> v.lanewise(VectorOperators.EXP);
+            case LOG -> v.lanewise(VectorOperators.LOG);
+            case SIN -> v.lanewise(VectorOperators.SIN);
+            case COS -> v.lanewise(VectorOperators.COS);
+            default -> throw new IllegalStateException("not a unary operator: " + op);
+        };
+    }
+
+    private static FloatVector apply(Op op, FloatVector v, FloatVector w) {
+        return switch (op) {
+            case ADD -> v.add(w);
+            case SUB -> v.sub(w);
+            case MUL -> v.mul(w);
+            case DIV -> v.div(w);
+            case MIN -> v.min(w);
+            case MAX -> v.max(w);
+            default -> throw new IllegalStateException("not a binary operator: " + op);
+        };
+    }
+}
@@ -0,0 +1,231 @@
+package com.javafest.aiatspeed.kernel;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Batched gathers for random-access lookups: {@code out[i] = src[indices[i]]} for ints and floats,
+ * and whole embedding rows by id.
+ * <p>
+ * A loop of independent random loads into a large array (see {@code cpu.MemoryAccessDemo}) misses
+ * the cache, and usually the TLB, on nearly every element. The out-of-order core overlaps some of
+ * those misses, but the loop stays bound by latency, well below the memory bandwidth. Here each batch
+ * of {@link #BATCH} lookups is reordered before it runs, in three passes:
+ * <ol>
+ *   <li>a counting sort by memory region copies the batch's indices into region order, and records
+ *   for each lookup its rank in that order. The region size is chosen from the source length so that
+ *   there are at most {@link #MAX_REGIONS} of them. The sort then writes to few enough streams to stay
+ *   in L1, and each region gets hundreds of hits per batch;</li>
+ *   <li>the sorted indices are gathered from the source region by region, in ascending address order,
+ *   with the Vector API's indexed load ({@code fromArray(species, src, 0, indexMap, mapOffset)}). The
+ *   pages of a region stay in the TLB, and neighbouring lookups share DRAM rows. The results go back
+ *   into the same buffer, sequentially;</li>
+ *   <li>the output is written in original order, sequentially, through a second indexed load from that
+ *   buffer, with the ranks as the index map. The buffer is in L2, so these random reads are cheap, and
+ *   the output is streamed rather than scattered.</li>
+ * </ol>
+ * Only pass 2 touches the source. Reordering only pays off when the source is larger than the
+ * caches: sources below {@link #DIRECT_BELOW} elements go straight to the plain loop. Batches are
+ * independent and run on the {@link ParallelFor} pool, one batch per task. {@link #gatherDirect} is the
+ * plain loop; both take an optional pool, for ints and floats, so that they can be compared at equal
+ * thread counts.
+ */
+public final class BatchGather {
+
+    /** Lookups sorted together: a batch's indices, ranks and results (512 KB) fit in L2. */
+    public static final int BATCH = 1 << 16;
+    /** Upper bound on regions per batch; at least 256 hits per region when they are all used. */
+    static final int MAX_REGIONS = 256;
+    /** Sources smaller than this (4 MB of ints or floats) stay in cache; reordering only adds work. */
+    static final int DIRECT_BELOW = 1 << 20;
+
+    private static final VectorSpecies<Integer> INT_SPECIES = VectorSpecies.of(int.class, KernelProfile.FLOAT_SPECIES.vectorShape());
+    private static final VectorSpecies<Float> FLOAT_SPECIES = KernelProfile.FLOAT_SPECIES;
+    private static final int L = FLOAT_SPECIES.length();
+
+    private BatchGather() {
+    }
+
+    /** {@code out[i] = src[indices[i]]}, reordered by region. */
+    public static void gather(int[] src, int[] indices, int[] out) {
+        gather(ParallelFor.pool(), src, indices, out);
+    }
+
+    /** {@code out[i] = src[indices[i]]}, reordered by region, on the given pool. */
+    public static void gather(ForkJoinPool pool, int[] src, int[] indices, int[] out) {
+        checkLengths(indices, out.length);
+        if (src.length < DIRECT_BELOW) {
+            gatherDirect(pool, src, indices, out);
+            return;
+        }
+        int shift = regionShift(src.length);
+        ParallelFor.forTasks(pool, batches(indices.length), (b0, b1) -> {
+            int[] sorted = new int[BATCH], rank = new int[BATCH], start = new int[MAX_REGIONS + 1];
+            for (int b = b0; b < b1; b++) {
+                int from = b * BATCH, n = Math.min(indices.length - from, BATCH);
+                sortByRegion(src.length, shift, indices, from, n, sorted, rank, start);
+                int i = 0;
+                int upper = INT_SPECIES.loopBound(n);
+                for (; i < upper; i += L) IntVector.fromArray(INT_SPECIES, src, 0, sorted, i).intoArray(sorted, i);
+                for (; i < n; i++) sorted[i] = src[sorted[i]];
+                for (i = 0; i < upper; i += L) IntVector.fromArray(INT_SPECIES, sorted, 0, rank, i).intoArray(out, from + i);
+                for (; i < n; i++) out[from + i] = sorted[rank[i]];
+            }
+        });
+    }
+
+    /** {@code out[i] = src[indices[i]]}, reordered by region. */
+    public static void gather(float[] src, int[] indices, float[] out) {
+        gather(ParallelFor.pool(), src, indices, out);
+    }
+
+    /** {@code out[i] = src[indices[i]]}, reordered by region, on the given pool. */
+    public static void gather(ForkJoinPool pool, float[] src, int[] indices, float[] out) {
+        checkLengths(indices, out.length);
+        if (src.length < DIRECT_BELOW) {
+            gatherDirect(pool, src, indices, out);
+            return;
+        }
+        int shift = regionShift(src.length);
+        ParallelFor.forTasks(pool, batches(indices.length), (b0, b1) -> {
+            int[] sorted = new int[BATCH], rank = new int[BATCH], start = new int[MAX_REGIONS + 1];
+            float[] values = new float[BATCH];
+            for (int b = b0; b < b1; b++) {
+                int from = b * BATCH, n = Math.min(indices.length - from, BATCH);
+                sortByRegion(src.length, shift, indices, from, n, sorted, rank, start);
+                int i = 0;
+                int upper = FLOAT_SPECIES.loopBound(n);
+                for (; i < upper; i += L) FloatVector.fromArray(FLOAT_SPECIES, src, 0, sorted, i).intoArray(values, i);
+                for (; i < n; i++) values[i] = src[sorted[i]];
+                for (i = 0; i < upper; i += L) FloatVector.fromArray(FLOAT_SPECIES, values, 0, rank, i).intoArray(out, from + i);
+                for (; i < n; i++) out[from + i] = values[rank[i]];
+            }
+        });
+    }
+
+    /**
+     * Copies embedding row {@code ids[i]} of a flat row-major {@code corpus} to
+     * {@code out[i*dim .. (i+1)*dim)}. Within each batch, rows are fetched region by region, front to
+     * back, and each is copied straight to its output row.
+     */
+    public static void gatherRows(float[] corpus, int dim, int[] ids, float[] out) {
+        if (dim <= 0 || corpus.length % dim != 0)
+            throw new IllegalArgumentException("corpus length " + corpus.length + " is not a multiple of dim " + dim);
+        if ((long) ids.length * dim != out.length)
+            throw new IllegalArgumentException("out has " + out.length + " floats, " + ids.length + " rows need " + (long) ids.length * dim);
+        int rows = corpus.length / dim;
+        int shift = regionShift(rows);
+        ParallelFor.forTasks(ParallelFor.pool(), batches(ids.length), (b0, b1) -> {
+            int[] sorted = new int[BATCH], rank = new int[BATCH], start = new int[MAX_REGIONS + 1];
+            int[] positions = new int[BATCH];
+            for (int b = b0; b < b1; b++) {
+                int from = b * BATCH, n = Math.min(ids.length - from, BATCH);
+                sortByRegion(rows, shift, ids, from, n, sorted, rank, start);
+                // Rows are whole cache lines, so writing them out of order costs little
+                for (int i = 0; i < n; i++) positions[rank[i]] = from + i;
+                for (int k = 0; k < n; k++) System.arraycopy(corpus, sorted[k] * dim, out, positions[k] * dim, dim);
+            }
+        });
+    }
+
+    /** The plain loop, {@code out[i] = src[indices[i]]} in index order: the baseline. */
+    public static void gatherDirect(int[] src, int[] indices, int[] out) {
+        gatherDirect(ParallelFor.pool(), src, indices, out);
+    }
+
+    /** The plain loop over ranges of {@code indices} on the given pool. */
+    public static void gatherDirect(ForkJoinPool pool, int[] src, int[] indices, int[] out) {
+        checkLengths(indices, out.length);
+        ParallelFor.forRange(pool, indices.length, (from, to) -> {
+            for (int i = from; i < to; i++) out[i] = src[indices[i]];
+        });
+    }
+
+    /** The plain loop for floats, {@code out[i] = src[indices[i]]} in index order. */
+    public static void gatherDirect(float[] src, int[] indices, float[] out) {
+        gatherDirect(ParallelFor.pool(), src, indices, out);
+    }
+
+    /** The plain loop for floats over ranges of {@code indices} on the given pool. */
+    public static void gatherDirect(ForkJoinPool pool, float[] src, int[] indices, float[] out) {
+        checkLengths(indices, out.length);
+        ParallelFor.forRange(pool, indices.length, (from, to) -> {
+            for (int i = from; i < to; i++) out[i] = src[indices[i]];
+        });
+    }
+
+    /** log2 of the elements per region: the smallest that leaves at most {@link #MAX_REGIONS} regions. */
+    static int regionShift(int length) {
+        int bits = 32 - Integer.numberOfLeadingZeros(Math.max(1, length - 1));
+        return Math.max(0, bits - Integer.numberOfTrailingZeros(MAX_REGIONS));
+    }
+
+    /**
+     * Stable counting sort of {@code indices[from, from+n)} by {@code index >>> shift} into
+     * {@code sorted[0, n)}; {@code rank[i]} is the slot in {@code sorted} of {@code indices[from+i]}.
+     */
+    private static void sortByRegion(int length, int shift, int[] indices, int from, int n,
+                                     int[] sorted, int[] rank, int[] start) {
+        Arrays.fill(start, 0);
+        for (int i = from; i < from + n; i++) {
+            int idx = indices[i];
+            if (idx < 0 || idx >= length) throw new ArrayIndexOutOfBoundsException("index " + idx + " at position " + i);
+            start[(idx >>> shift) + 1]++;
+        }
+        for (int r = 0; r < MAX_REGIONS; r++) start[r + 1] += start[r];
+        for (int i = 0; i < n; i++) {
+            int idx = indices[from + i];
+            int slot = start[idx >>> shift]++;
+            sorted[slot] = idx;
+            rank[i] = slot;
+        }
+    }
+
+    private static int batches(int n) {
+        return (n + BATCH - 1) / BATCH;
+    }
+
+    private static void checkLengths(int[] indices, int outLength) {
+        if (indices.length != outLength)
+            throw new IllegalArgumentException(indices.length + " indices but output length " + outLength);
+    }
+
+    /**
+     * The {@code MemoryAccessDemo} workload: random reads into a source of ints, with the plain loop
+     * and the region-sorted batched gather on pools of the same size. Arguments: source length and
+     * lookups (default 50M each), then threads (default 1).
+     */
+    public static void main(String[] args) {
+        int length = args.length > 0 ? Integer.parseInt(args[0]) : 50_000_000;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 50_000_000;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+        int[] src = new int[length];
+        Arrays.parallelSetAll(src, i -> i + 1);
+        int[] indices = new int[lookups];
+        RandomData.fillInts(indices, length, 42);
+        int[] a = new int[lookups], b = new int[lookups];
+        ForkJoinPool pool = ParallelFor.newPool(threads);
+        try {
+            long direct = Long.MAX_VALUE, sorted = Long.MAX_VALUE;
+            for (int rep = 0; rep < 5; rep++) {
+                long t0 = System.nanoTime();
+                gatherDirect(pool, src, indices, a);
+                long t1 = System.nanoTime();
+                gather(pool, src, indices, b);
+                long t2 = System.nanoTime();
+                direct = Math.min(direct, t1 - t0);
+                sorted = Math.min(sorted, t2 - t1);
+            }
+            System.out.printf("%,d random lookups into %d MB, %d thread(s), best of 5: direct %d ms, "
+                            + "region-sorted batches %d ms (%d regions), results %s%n",
+                    lookups, 4L * length >> 20, threads, direct / 1_000_000, sorted / 1_000_000,
+                    (length - 1 >>> regionShift(length)) + 1, Arrays.equals(a, b) ? "equal" : "DIFFER");
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.javafest.aiatspeed.kernel;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures kernel variants on this host and writes the winners to the {@link KernelProfile} file.
+ * <p>
+ * The species has to be a compile-time constant for the Vector API to generate SIMD code, so
+ * candidates can't be swapped inside one JVM. Each candidate species is instead measured in a child
+ * JVM started with {@code -Daiatspeed.float.bits=N}, which runs the real {@link Reductions} kernels
+ * compiled for that species. For every species the child times the 1, 2, 4 and 8 accumulator dot
+ * products on L2-resident data. The fastest (species, unroll) pair wins. A last child then times a
+ * DRAM-sized parallel triad on pools of 1, 2, 4 ... cores threads with that species, and the
+ * fastest pool size wins, fewer threads breaking ties.
+ * <p>
+ * Timings are best-of-N wall clock after warm-up, enough to rank variants. Use the JMH benchmarks to
+ * measure them properly. Run once per machine (and again after a JDK upgrade, which invalidates the
+ * profile):
+ * <pre>java --add-modules jdk.incubator.vector -cp ... com.javafest.aiatspeed.kernel.Calibrator</pre>
+ */
+public final class Calibrator {
+
+    private static final int DOT_SIZE = 16 * 1024;      // 2 x 64 KB: in L2, where unroll and width matter
+    private static final int DOT_CALLS = 2_000;
+    private static final int TRIAD_SIZE = 8 * 1024 * 1024; // 3 x 32 MB: past the last-level cache
+    private static final int ROUNDS = 7;
+    private static final double TIE = 1.03;                // within 3% counts as a tie
+
+    private static final int[] UNROLLS = {1, 2, 4, 8};
+
+    private Calibrator() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--probe-dot")) {
+            probeDot();
+        } else if (args.length > 0 && args[0].equals("--probe-threads")) {
+            probeThreads();
+        } else {
+            calibrate();
+        }
+    }
+
+    private static void calibrate() throws IOException, InterruptedException {
+        System.out.println("Calibrating kernels for " + KernelProfile.hostKey());
+        Properties profile = new Properties();
+        StringBuilder report = new StringBuilder();
+        int bestBits = 0, bestUnroll = 0;
+        double bestNs = Double.MAX_VALUE;
+        for (int bits = 128; bits <= FloatVector.SPECIES_MAX.vectorBitSize(); bits *= 2) {
+            for (String line : child(bits, "--probe-dot")) {
+                String[] f = line.split(" ");
+                int unroll = Integer.parseInt(f[0]);
+                double ns = Double.parseDouble(f[1]);
+                System.out.printf("  dot   %3d-bit x%d : %8.1f ns/call%n", bits, unroll, ns);
+                report.append(String.format("dot %d-bit x%d = %.1f ns; ", bits, unroll, ns));
+                // narrower species and fewer accumulators come first and win ties
+                if (ns * TIE < bestNs) {
+                    bestNs = ns;
+                    bestBits = bits;
+                    bestUnroll = unroll;
+                }
+            }
+        }
+        int bestThreads = 0;
+        double bestTriad = Double.MAX_VALUE;
+        for (String line : child(bestBits, "--probe-threads")) {
+            String[] f = line.split(" ");
+            int threads = Integer.parseInt(f[0]);
+            double ms = Double.parseDouble(f[1]);
+            System.out.printf("  triad %2d threads : %8.2f ms%n", threads, ms);
+            report.append(String.format("triad %d threads = %.2f ms; ", threads, ms));
+            // candidates come in increasing order, so more threads must beat the tie margin to win
+            if (ms * TIE < bestTriad) {
+                bestTriad = ms;
+                bestThreads = threads;
+            }
+        }
+        profile.setProperty(KernelProfile.KEY_HOST, KernelProfile.hostKey());
+        profile.setProperty(KernelProfile.KEY_FLOAT_BITS, Integer.toString(bestBits));
+        profile.setProperty(KernelProfile.KEY_DOT_UNROLL, Integer.toString(bestUnroll));
+        profile.setProperty(KernelProfile.KEY_THREADS, Integer.toString(bestThreads));
+        Path path = KernelProfile.path();
+        if (path.getParent() != null) Files.createDirectories(path.getParent());
+        try (Writer w = Files.newBufferedWriter(path)) {
+            profile.store(w, "Kernel calibration: " + report);
+        }
+        System.out.printf("Winner: %d-bit species, dot x%d, %d threads -> %s%n", bestBits, bestUnroll, bestThreads, path);
+    }
+
+    // Runs this class in a child JVM with the given species and returns its result lines
+    private static List<String> child(int bits, String mode) throws IOException, InterruptedException {
+        List<String> cmd = new ArrayList<>();
+        cmd.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        boolean vectorModule = false;
+        for (String arg : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (arg.startsWith("-Daiatspeed.") || arg.startsWith("-agentlib") || arg.startsWith("-javaagent")) continue;
+            vectorModule |= arg.contains("jdk.incubator.vector");
+            cmd.add(arg);
+        }
+        if (!vectorModule) cmd.add("--add-modules=jdk.incubator.vector");
+        cmd.add("-Daiatspeed.float.bits=" + bits);
+        cmd.add("-cp");
+        cmd.add(System.getProperty("java.class.path"));
+        cmd.add(Calibrator.class.getName());
+        cmd.add(mode);
+        Process p = new ProcessBuilder(cmd).redirectError(ProcessBuilder.Redirect.DISCARD).start();
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
+            for (String line; (line = r.readLine()) != null; ) {
+                if (line.startsWith("result ")) lines.add(line.substring("result ".length()));
+            }
+        }
+        if (p.waitFor() != 0 || lines.isEmpty())
+            throw new IllegalStateException("calibration probe failed for " + bits + "-bit species: " + cmd);
+        return lines;
+    }
+
+    private static void probeDot() {
+        float[] a = random(DOT_SIZE, 1), b = random(DOT_SIZE, 2);
+        float sink = 0f;
+        for (int unroll : UNROLLS) {
+            for (int w = 0; w < 5 * DOT_CALLS; w++) sink += dot(unroll, a, b); // warm-up
+            long best = Long.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++) {
+                long t0 = System.nanoTime();
+                for (int c = 0; c < DOT_CALLS; c++) sink += dot(unroll, a, b);
+                best = Math.min(best, System.nanoTime() - t0);
+            }
+            System.out.printf("result %d %.1f%n", unroll, (double) best / DOT_CALLS);
+        }
+        if (sink == 42f) System.out.println(); // keep the results live
+    }
+
+    private static float dot(int unroll, float[] a, float[] b) {
+        return switch (unroll) {
+            case 1 -> Reductions.dot1(a, 0, b, 0, a.length);
+            case 2 -> Reductions.dot2(a, 0, b, 0, a.length);
+            case 4 -> Reductions.dot4(a, 0, b, 0, a.length);
+            default -> Reductions.dot8(a, 0, b, 0, a.length);
+        };
+    }
+
+    private static void probeThreads() {
+        float[] a = random(TRIAD_SIZE, 3), b = random(TRIAD_SIZE, 4), out = new float[TRIAD_SIZE];
+        int cores = Runtime.getRuntime().availableProcessors();
+        List<Integer> candidates = new ArrayList<>();
+        for (int t = 1; t < cores; t *= 2) candidates.add(t);
+        candidates.add(cores);
+        for (int threads : candidates) {
+            ForkJoinPool pool = ParallelFor.newPool(threads);
+            for (int w = 0; w < 3; w++) ParallelFor.forRange(pool, TRIAD_SIZE, (from, to) -> triad(a, b, out, from, to));
+            long best = Long.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++) {
+                long t0 = System.nanoTime();
+                ParallelFor.forRange(pool, TRIAD_SIZE, (from, to) -> triad(a, b, out, from, to));
+                best = Math.min(best, System.nanoTime() - t0);
+            }
+            pool.shutdown();
+            System.out.printf("result %d %.3f%n", threads, best / 1e6);
+        }
+    }
+
+    // out = a * 1.5 + b
+    private static void triad(float[] a, float[] b, float[] out, int from, int to) {
+        VectorSpecies<Float> s = KernelProfile.FLOAT_SPECIES;
+        FloatVector scale = FloatVector.broadcast(s, 1.5f);
+        int i = from;
+        int upper = from + s.loopBound(to - from);
+        for (; i < upper; i += s.length()) {
+            FloatVector.fromArray(s, a, i).fma(scale, FloatVector.fromArray(s, b, i)).intoArray(out, i);
+        }
+        for (; i < to; i++) out[i] = a[i] * 1.5f + b[i];
+    }
+
+    private static float[] random(int n, long seed) {
+        Random r = new Random(seed);
+        float[] v = new float[n];
+        for (int i = 0; i < n; i++) v[i] = r.nextFloat() - 0.5f;
+        return v;
+    }
+}
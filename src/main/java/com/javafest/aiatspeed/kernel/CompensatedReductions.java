@@ -0,0 +1,197 @@
+package com.javafest.aiatspeed.kernel;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.util.Random;
+
+/**
+ * SIMD dot products and cosine with double-level accuracy over float data.
+ * <p>
+ * A float accumulator carries 24 bits. Once it is much larger than the terms being added, each add
+ * rounds away low-order bits, so the error of a long float sum grows with its length. The kernels in
+ * {@link Reductions} are fine for rows of a few hundred dimensions but drift visibly at 10^8-10^9
+ * elements. Three ways around it:
+ * <ul>
+ *   <li>{@link #dotBlocked}: float SIMD over blocks of {@link #BLOCK} elements, block results summed in
+ *   {@code double}. The float error is bounded by the block length instead of the array length, and
+ *   the speed stays that of the float kernel.</li>
+ *   <li>{@link #dotWide}: each float vector is widened into two {@link DoubleVector}s
+ *   ({@code F2D}, parts 0 and 1) and accumulated with double FMAs. The product of two floats is exact
+ *   in double, so this matches the scalar double loop's accuracy, at half the lanes per FMA.</li>
+ *   <li>{@link #dotCompensated}: float lanes with error-free transformations (Ogita-Rump-Oishi Dot2).
+ *   {@code fma(a, b, -p)} recovers the rounding error of each product, TwoSum recovers the error of each
+ *   add, and both are accumulated separately. The result is as if computed in twice the working
+ *   precision, at full float lane count but about five times the flops. Runs are flushed to
+ *   {@code double} every {@link #FLUSH} elements.</li>
+ * </ul>
+ */
+public class CompensatedReductions {
+
+    static final VectorSpecies<Float> SPECIES = KernelProfile.FLOAT_SPECIES;
+    // Same bit size, half the lanes: one float vector widens into two of these
+    static final VectorSpecies<Double> DOUBLE_SPECIES =
+            VectorSpecies.of(double.class, VectorShape.forBitSize(SPECIES.vectorBitSize()));
+    private static final int L = SPECIES.length();
+    /** Elements per float block in {@link #dotBlocked}; 2 x 4 KB, so blocks stream from L1. */
+    static final int BLOCK = 1024;
+    /**
+     * Elements per Dot2 run in {@link #dotCompensated}. The compensation term is itself a float sum, so
+     * it is flushed into a double before it grows large enough to lose bits.
+     */
+    static final int FLUSH = 1 << 16;
+
+    public static double dotBlocked(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        double sum = 0.0;
+        for (int i = 0; i < length; i += BLOCK) {
+            sum += Reductions.dot(a, aOffset + i, b, bOffset + i, Math.min(BLOCK, length - i));
+        }
+        return sum;
+    }
+
+    public static double dotWide(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        DoubleVector acc0 = DoubleVector.zero(DOUBLE_SPECIES);
+        DoubleVector acc1 = DoubleVector.zero(DOUBLE_SPECIES);
+        int i = 0;
+        int upper = SPECIES.loopBound(length);
+        for (; i < upper; i += L) {
+            FloatVector va = FloatVector.fromArray(SPECIES, a, aOffset + i);
+            FloatVector vb = FloatVector.fromArray(SPECIES, b, bOffset + i);
+            acc0 = widen(va, 0).fma(widen(vb, 0), acc0);
+            acc1 = widen(va, 1).fma(widen(vb, 1), acc1);
+        }
+        double sum = acc0.add(acc1).reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) sum += (double) a[aOffset + i] * b[bOffset + i];
+        return sum;
+    }
+
+    public static double dotCompensated(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        double sum = 0.0;
+        for (int i = 0; i < length; i += FLUSH) {
+            sum += dot2(a, aOffset + i, b, bOffset + i, Math.min(FLUSH, length - i));
+        }
+        return sum;
+    }
+
+    private static double dot2(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        FloatVector s = FloatVector.zero(SPECIES);
+        FloatVector c = FloatVector.zero(SPECIES);
+        int i = 0;
+        int upper = SPECIES.loopBound(length);
+        for (; i < upper; i += L) {
+            FloatVector va = FloatVector.fromArray(SPECIES, a, aOffset + i);
+            FloatVector vb = FloatVector.fromArray(SPECIES, b, bOffset + i);
+            FloatVector p = va.mul(vb);
+            FloatVector pErr = va.fma(vb, p.neg());   // TwoProduct: p + pErr == va * vb exactly
+            FloatVector t = s.add(p);
+            FloatVector z = t.sub(s);
+            FloatVector sErr = s.sub(t.sub(z)).add(p.sub(z)); // TwoSum: t + sErr == s + p exactly
+            s = t;
+            c = c.add(pErr.add(sErr));
+        }
+        // Combine lanes in double so the final reduction doesn't give the accuracy back
+        double sum = widen(s, 0).add(widen(s, 1)).add(widen(c, 0).add(widen(c, 1))).reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) sum += (double) a[aOffset + i] * b[bOffset + i];
+        return sum;
+    }
+
+    public static double dotWide(float[] a, float[] b) {
+        return dotWide(a, 0, b, 0, a.length);
+    }
+
+    /**
+     * Cosine with dot, |a|^2 and |b|^2 accumulated in widened double lanes.
+     */
+    public static float cosineWide(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        DoubleVector dot0 = DoubleVector.zero(DOUBLE_SPECIES), dot1 = DoubleVector.zero(DOUBLE_SPECIES);
+        DoubleVector aa0 = DoubleVector.zero(DOUBLE_SPECIES), aa1 = DoubleVector.zero(DOUBLE_SPECIES);
+        DoubleVector bb0 = DoubleVector.zero(DOUBLE_SPECIES), bb1 = DoubleVector.zero(DOUBLE_SPECIES);
+        int i = 0;
+        int upper = SPECIES.loopBound(length);
+        for (; i < upper; i += L) {
+            FloatVector va = FloatVector.fromArray(SPECIES, a, aOffset + i);
+            FloatVector vb = FloatVector.fromArray(SPECIES, b, bOffset + i);
+            DoubleVector a0 = widen(va, 0), a1 = widen(va, 1);
+            DoubleVector b0 = widen(vb, 0), b1 = widen(vb, 1);
+            dot0 = a0.fma(b0, dot0);
+            dot1 = a1.fma(b1, dot1);
+            aa0 = a0.fma(a0, aa0);
+            aa1 = a1.fma(a1, aa1);
+            bb0 = b0.fma(b0, bb0);
+            bb1 = b1.fma(b1, bb1);
+        }
+        double dot = dot0.add(dot1).reduceLanes(VectorOperators.ADD);
+        double na = aa0.add(aa1).reduceLanes(VectorOperators.ADD);
+        double nb = bb0.add(bb1).reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            double x = a[aOffset + i], y = b[bOffset + i];
+            dot += x * y;
+            na += x * x;
+            nb += y * y;
+        }
+        return (float) (dot / (Math.sqrt(na) * Math.sqrt(nb)));
+    }
+
+    public static float cosineWide(float[] a, float[] b) {
+        if (a.length != b.length)
+            throw new IllegalArgumentException("length mismatch: " + a.length + " vs " + b.length);
+        return cosineWide(a, 0, b, 0, a.length);
+    }
+
+    private static DoubleVector widen(FloatVector v, int part) {
+        return (DoubleVector) v.convertShape(VectorOperators.F2D, DOUBLE_SPECIES, part);
+    }
+
+    /**
+     * Accuracy report: relative error of each dot product against the scalar double loop.
+     */
+    public static void main(String[] args) {
+        int max = 100_000_000;
+        float[] a = new float[max];
+        float[] b = new float[max];
+        Random r = new Random(123);
+        for (int i = 0; i < max; i++) { a[i] = r.nextFloat(); b[i] = r.nextFloat(); }
+
+        System.out.printf("%12s %12s %12s %12s %12s%n", "n", "float SIMD", "blocked", "wide", "compensated");
+        for (int n = 1_000; n <= max; n *= 10) {
+            double ref = 0.0;
+            for (int i = 0; i < n; i++) ref += (double) a[i] * b[i];
+            System.out.printf("%12d %12.2e %12.2e %12.2e %12.2e%n", n,
+                    relErr(Reductions.dot(a, 0, b, 0, n), ref),
+                    relErr(dotBlocked(a, 0, b, 0, n), ref),
+                    relErr(dotWide(a, 0, b, 0, n), ref),
+                    relErr(dotCompensated(a, 0, b, 0, n), ref));
+        }
+
+        // Timings on the largest size, after warm-up
+        for (int w = 0; w < 3; w++) {
+            Reductions.dot(a, 0, b, 0, max);
+            dotBlocked(a, 0, b, 0, max);
+            dotWide(a, 0, b, 0, max);
+            dotCompensated(a, 0, b, 0, max);
+        }
+        long t0 = System.nanoTime();
+        double ref = 0.0;
+        for (int i = 0; i < max; i++) ref += (double) a[i] * b[i];
+        long t1 = System.nanoTime();
+        Reductions.dot(a, 0, b, 0, max);
+        long t2 = System.nanoTime();
+        dotBlocked(a, 0, b, 0, max);
+        long t3 = System.nanoTime();
+        dotWide(a, 0, b, 0, max);
+        long t4 = System.nanoTime();
+        dotCompensated(a, 0, b, 0, max);
+        long t5 = System.nanoTime();
+        if (ref == 42.0) System.out.println(); // keep the scalar loop live
+        System.out.printf("%nn=%d: scalar double %d ms, float SIMD %d ms, blocked %d ms, wide %d ms, compensated %d ms%n",
+                max, (t1 - t0) / 1_000_000, (t2 - t1) / 1_000_000, (t3 - t2) / 1_000_000,
+                (t4 - t3) / 1_000_000, (t5 - t4) / 1_000_000);
+    }
+
+    private static double relErr(double v, double ref) {
+        return Math.abs(v - ref) / Math.abs(ref);
+    }
+}
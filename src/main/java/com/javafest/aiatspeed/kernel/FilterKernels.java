@@ -0,0 +1,206 @@
+package com.javafest.aiatspeed.kernel;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.util.Arrays;
+
+/**
+ * Branch-free filtered aggregates: sum, count, min/max, dot product and selection over the rows
+ * whose flag is set.
+ * <p>
+ * The scalar form, {@code if (flags[i]) sum += x[i]}, runs at full speed when the flags are
+ * predictable, but at 50% random selectivity about every second branch mispredicts, at 15-20 cycles
+ * each (see {@code cpu.BranchPredictionDemo}). Here, flags are loaded
+ * a vector at a time straight into a {@link VectorMask} ({@link VectorMask#fromArray}). The
+ * mask then steers the arithmetic instead of control flow:
+ * <ul>
+ *   <li>sum and dot use masked loads, which read unselected lanes as zero, so the accumulate is
+ *   unconditional;</li>
+ *   <li>min/max blend unselected lanes to the identity (+/-Infinity) before an unconditional
+ *   min/max;</li>
+ *   <li>count is {@link VectorMask#trueCount()} over byte-wide masks, one popcount per 64 flags on
+ *   AVX-512;</li>
+ *   <li>{@link #select} packs the selected values to the front of a vector with
+ *   {@link FloatVector#compress} and stores only that prefix.</li>
+ * </ul>
+ * The loop does the same work whatever the selectivity, so its time is flat, while the scalar loop's
+ * time peaks at 50%. Float sums are accumulated per {@link #BLOCK} in float, then in {@code double}.
+ */
+public class FilterKernels {
+
+    static final VectorSpecies<Float> SPECIES = KernelProfile.FLOAT_SPECIES;
+    private static final int L = SPECIES.length();
+    // One flag per byte lane: a 512-bit vector tests 64 flags at once
+    private static final VectorSpecies<Byte> BYTE_SPECIES = VectorSpecies.of(byte.class, SPECIES.vectorShape());
+    // Int sums widen into longs: as many int lanes as the long species has. At least 128 bits of
+    // longs, so the int species is at least 64 bits, the smallest legal shape
+    private static final VectorSpecies<Long> LONG_SPECIES =
+            VectorSpecies.of(long.class, VectorShape.forBitSize(Math.max(128, SPECIES.vectorBitSize())));
+    private static final VectorSpecies<Integer> HALF_INT =
+            VectorSpecies.of(int.class, VectorShape.forBitSize(LONG_SPECIES.length() * Integer.SIZE));
+    /** Elements per float run before it is added into the {@code double} total. */
+    static final int BLOCK = 4096;
+
+    /** Sum of {@code x[i]} over set flags, accumulated in {@code long}; never overflows an int lane. */
+    public static long sum(int[] x, boolean[] flags) {
+        checkLength(x.length, flags);
+        LongVector acc = LongVector.zero(LONG_SPECIES);
+        int i = 0;
+        int upper = HALF_INT.loopBound(x.length);
+        for (; i < upper; i += HALF_INT.length()) {
+            VectorMask<Integer> m = VectorMask.fromArray(HALF_INT, flags, i);
+            IntVector v = IntVector.fromArray(HALF_INT, x, i, m);
+            acc = acc.add((LongVector) v.convertShape(VectorOperators.I2L, LONG_SPECIES, 0));
+        }
+        long s = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < x.length; i++) s += flags[i] ? x[i] : 0;
+        return s;
+    }
+
+    /** Sum of {@code x[i]} over set flags. */
+    public static double sum(float[] x, boolean[] flags) {
+        checkLength(x.length, flags);
+        double total = 0.0;
+        for (int from = 0; from < x.length; from += BLOCK) total += sum(x, flags, from, Math.min(x.length, from + BLOCK));
+        return total;
+    }
+
+    private static float sum(float[] x, boolean[] flags, int from, int to) {
+        FloatVector acc0 = FloatVector.zero(SPECIES), acc1 = FloatVector.zero(SPECIES);
+        int i = from;
+        int upper2 = from + (to - from) / (2 * L) * (2 * L);
+        for (; i < upper2; i += 2 * L) {
+            acc0 = acc0.add(FloatVector.fromArray(SPECIES, x, i, VectorMask.fromArray(SPECIES, flags, i)));
+            acc1 = acc1.add(FloatVector.fromArray(SPECIES, x, i + L, VectorMask.fromArray(SPECIES, flags, i + L)));
+        }
+        float s = acc0.add(acc1).reduceLanes(VectorOperators.ADD);
+        for (; i < to; i++) s += flags[i] ? x[i] : 0f;
+        return s;
+    }
+
+    /** Number of set flags. */
+    public static int count(boolean[] flags) {
+        int c = 0;
+        int i = 0;
+        int upper = BYTE_SPECIES.loopBound(flags.length);
+        for (; i < upper; i += BYTE_SPECIES.length()) c += VectorMask.fromArray(BYTE_SPECIES, flags, i).trueCount();
+        for (; i < flags.length; i++) c += flags[i] ? 1 : 0;
+        return c;
+    }
+
+    /** Smallest {@code x[i]} over set flags; {@code +Infinity} if none is set. */
+    public static float min(float[] x, boolean[] flags) {
+        checkLength(x.length, flags);
+        FloatVector none = FloatVector.broadcast(SPECIES, Float.POSITIVE_INFINITY);
+        FloatVector acc = none;
+        int i = 0;
+        int upper = SPECIES.loopBound(x.length);
+        for (; i < upper; i += L) {
+            acc = acc.min(none.blend(FloatVector.fromArray(SPECIES, x, i), VectorMask.fromArray(SPECIES, flags, i)));
+        }
+        float r = acc.reduceLanes(VectorOperators.MIN);
+        for (; i < x.length; i++) r = Math.min(r, flags[i] ? x[i] : Float.POSITIVE_INFINITY);
+        return r;
+    }
+
+    /** Largest {@code x[i]} over set flags; {@code -Infinity} if none is set. */
+    public static float max(float[] x, boolean[] flags) {
+        checkLength(x.length, flags);
+        FloatVector none = FloatVector.broadcast(SPECIES, Float.NEGATIVE_INFINITY);
+        FloatVector acc = none;
+        int i = 0;
+        int upper = SPECIES.loopBound(x.length);
+        for (; i < upper; i += L) {
+            acc = acc.max(none.blend(FloatVector.fromArray(SPECIES, x, i), VectorMask.fromArray(SPECIES, flags, i)));
+        }
+        float r = acc.reduceLanes(VectorOperators.MAX);
+        for (; i < x.length; i++) r = Math.max(r, flags[i] ? x[i] : Float.NEGATIVE_INFINITY);
+        return r;
+    }
+
+    /** Dot product of {@code a} and {@code b} over the positions whose flag is set. */
+    public static double dot(float[] a, float[] b, boolean[] flags) {
+        checkLength(a.length, flags);
+        checkLength(b.length, flags);
+        double total = 0.0;
+        for (int from = 0; from < a.length; from += BLOCK) total += dot(a, b, flags, from, Math.min(a.length, from + BLOCK));
+        return total;
+    }
+
+    private static float dot(float[] a, float[] b, boolean[] flags, int from, int to) {
+        FloatVector acc0 = FloatVector.zero(SPECIES), acc1 = FloatVector.zero(SPECIES);
+        int i = from;
+        int upper2 = from + (to - from) / (2 * L) * (2 * L);
+        for (; i < upper2; i += 2 * L) {
+            // Both loads masked: an Inf or NaN in an unselected b lane must not reach the sum as 0 * Inf
+            VectorMask<Float> m0 = VectorMask.fromArray(SPECIES, flags, i);
+            VectorMask<Float> m1 = VectorMask.fromArray(SPECIES, flags, i + L);
+            acc0 = FloatVector.fromArray(SPECIES, a, i, m0).fma(FloatVector.fromArray(SPECIES, b, i, m0), acc0);
+            acc1 = FloatVector.fromArray(SPECIES, a, i + L, m1).fma(FloatVector.fromArray(SPECIES, b, i + L, m1), acc1);
+        }
+        float s = acc0.add(acc1).reduceLanes(VectorOperators.ADD);
+        for (; i < to; i++) s += flags[i] ? a[i] * b[i] : 0f;
+        return s;
+    }
+
+    /**
+     * Copies the selected {@code x[i]}, in order, to the front of {@code out}.
+     *
+     * @param out at least {@link #count count(flags)} long
+     * @return the number of values written
+     */
+    public static int select(float[] x, boolean[] flags, float[] out) {
+        checkLength(x.length, flags);
+        int n = 0;
+        int i = 0;
+        int upper = SPECIES.loopBound(x.length);
+        for (; i < upper; i += L) {
+            VectorMask<Float> m = VectorMask.fromArray(SPECIES, flags, i);
+            // compress() packs the set lanes first; m.compress() is the matching prefix mask
+            FloatVector.fromArray(SPECIES, x, i).compress(m).intoArray(out, n, m.compress());
+            n += m.trueCount();
+        }
+        for (; i < x.length; i++) if (flags[i]) out[n++] = x[i];
+        return n;
+    }
+
+    private static void checkLength(int length, boolean[] flags) {
+        if (flags.length != length)
+            throw new IllegalArgumentException("length mismatch: " + length + " values, " + flags.length + " flags");
+    }
+
+    /** Branchy scalar vs masked SIMD filtered sum over 50M ints at 50% and 1% selectivity. */
+    public static void main(String[] args) {
+        int n = 50_000_000;
+        int[] x = new int[n];
+        Arrays.parallelSetAll(x, i -> i + 1);
+        float[] u = RandomData.uniform(n, 42);
+        boolean[] flags = new boolean[n];
+        for (double p : new double[]{0.5, 0.01}) {
+            for (int i = 0; i < n; i++) flags[i] = u[i] < p;
+            long ref = 0;
+            for (int w = 0; w < 3; w++) { ref = scalarSum(x, flags); sum(x, flags); } // warm-up
+            long t0 = System.nanoTime();
+            ref = scalarSum(x, flags);
+            long t1 = System.nanoTime();
+            long s = sum(x, flags);
+            long t2 = System.nanoTime();
+            System.out.printf("selectivity %4.0f%%: branchy %4d ms, masked %4d ms, sums %s (count %d)%n", 100 * p,
+                    (t1 - t0) / 1_000_000, (t2 - t1) / 1_000_000, ref == s ? "equal" : "DIFFER", count(flags));
+        }
+    }
+
+    private static long scalarSum(int[] x, boolean[] flags) {
+        long s = 0;
+        for (int i = 0; i < x.length; i++) {
+            if (flags[i]) s += x[i];
+        }
+        return s;
+    }
+}
@@ -0,0 +1,298 @@
+package com.javafest.aiatspeed.kernel;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.util.Arrays;
+
+/**
+ * A dense float matrix in one flat, row-major {@code float[]}, with cache-tiled traversal.
+ * <p>
+ * A {@code float[][]} (or the {@code int[][]} in {@code cpu.CacheAccessDemo}) is one array object
+ * per row, scattered over the heap. Every row switch follows a pointer and pays a bounds check, and
+ * a column walk touches one cache line per element with no reuse. Here element {@code (r, c)} is
+ * {@code data[r * cols + c]}: rows are contiguous and consecutive rows are adjacent.
+ * <p>
+ * Column-wise work never walks a column. {@link #forEachTile} visits the matrix in rectangular tiles
+ * small enough for L1/L2. {@link #colSums} adds whole row segments, a vector at a time, into a strip
+ * of per-column accumulators, so it reads memory in the same order as {@link #rowSums} and runs
+ * at nearly the same speed. {@link #transpose} copies {@link #TILE} x {@link #TILE} blocks, so the
+ * strided writes of each block stay in cache. Reductions and the transpose run on the
+ * {@link ParallelFor} pool, one tile per task. {@link #colSums} cuts its bands so that every worker
+ * gets several tiles; the bands are summed in {@code double}, so the result moves with the pool size
+ * only in the last bits.
+ */
+public final class FloatMatrix {
+
+    /** Side of a transpose block: 64 x 64 floats is 16 KB, so a source and target block share L1. */
+    public static final int TILE = 64;
+    /** Most rows per partial in {@link #colSums}: float sums over a band, bands summed in {@code double}. */
+    static final int BAND_ROWS = 1024;
+    /** Fewest rows per band: each band's partial costs one extra pass over a row of accumulators. */
+    static final int MIN_BAND_ROWS = 32;
+    /** Tiles per worker wanted from {@link #colSums}, so that stealing can even out the load. */
+    private static final int TILES_PER_THREAD = 8;
+    /** Columns per accumulator strip in {@link #colSums}: 8 KB of accumulators stay in L1. */
+    static final int STRIP_COLS = 2048;
+
+    private static final VectorSpecies<Float> SPECIES = KernelProfile.FLOAT_SPECIES;
+    private static final int L = SPECIES.length();
+
+    /** A tile body over rows {@code [row0, row1)} and columns {@code [col0, col1)}. */
+    @FunctionalInterface
+    public interface TileBody {
+        void run(int row0, int row1, int col0, int col1);
+    }
+
+    private final float[] data;
+    private final int rows;
+    private final int cols;
+
+    private FloatMatrix(float[] data, int rows, int cols) {
+        this.data = data;
+        this.rows = rows;
+        this.cols = cols;
+    }
+
+    public FloatMatrix(int rows, int cols) {
+        this(new float[checkedSize(rows, cols)], rows, cols);
+    }
+
+    /** Views {@code data} as a {@code rows x cols} row-major matrix; no copy. */
+    public static FloatMatrix wrap(float[] data, int rows, int cols) {
+        if (data.length != checkedSize(rows, cols))
+            throw new IllegalArgumentException(data.length + " floats is not " + rows + " x " + cols);
+        return new FloatMatrix(data, rows, cols);
+    }
+
+    /** Copies jagged rows into a flat matrix. */
+    public static FloatMatrix of(float[][] rows) {
+        int cols = rows.length == 0 ? 0 : rows[0].length;
+        FloatMatrix m = new FloatMatrix(rows.length, cols);
+        for (int r = 0; r < rows.length; r++) {
+            if (rows[r].length != cols)
+                throw new IllegalArgumentException("row " + r + " has " + rows[r].length + " columns, expected " + cols);
+            System.arraycopy(rows[r], 0, m.data, r * cols, cols);
+        }
+        return m;
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    public int cols() {
+        return cols;
+    }
+
+    /** The backing array, row-major. */
+    public float[] data() {
+        return data;
+    }
+
+    /** Index of {@code (row, 0)} in {@link #data()}. */
+    public int offset(int row) {
+        return row * cols;
+    }
+
+    public float get(int row, int col) {
+        return data[row * cols + col];
+    }
+
+    public void set(int row, int col, float v) {
+        data[row * cols + col] = v;
+    }
+
+    /** Runs {@code body} over {@code tileRows x tileCols} tiles, row of tiles by row of tiles. */
+    public void forEachTile(int tileRows, int tileCols, TileBody body) {
+        checkTile(tileRows, tileCols);
+        for (int r0 = 0; r0 < rows; r0 += tileRows) {
+            for (int c0 = 0; c0 < cols; c0 += tileCols) {
+                body.run(r0, Math.min(rows, r0 + tileRows), c0, Math.min(cols, c0 + tileCols));
+            }
+        }
+    }
+
+    /**
+     * Runs {@code body} over {@code tileRows x tileCols} tiles on the {@link ParallelFor} pool, in no
+     * particular order; bodies must only write state owned by their tile.
+     */
+    public void forEachTileParallel(int tileRows, int tileCols, TileBody body) {
+        checkTile(tileRows, tileCols);
+        int tileColCount = (cols + tileCols - 1) / tileCols;
+        int tiles = (rows + tileRows - 1) / tileRows * tileColCount;
+        ParallelFor.forTasks(ParallelFor.pool(), tiles, (from, to) -> {
+            for (int t = from; t < to; t++) {
+                int r0 = t / tileColCount * tileRows, c0 = t % tileColCount * tileCols;
+                body.run(r0, Math.min(rows, r0 + tileRows), c0, Math.min(cols, c0 + tileCols));
+            }
+        });
+    }
+
+    /** Sum of each row. */
+    public float[] rowSums() {
+        float[] sums = new float[rows];
+        int grain = Math.max(1, ParallelFor.grain(rows * cols, ParallelFor.pool().getParallelism()) / Math.max(1, cols));
+        ParallelFor.forRange(ParallelFor.pool(), rows, grain, (from, to) -> {
+            for (int r = from; r < to; r++) sums[r] = Reductions.sum(data, r * cols, cols);
+        });
+        return sums;
+    }
+
+    /**
+     * Sum of each column, read in row order: each band x {@link #STRIP_COLS} tile adds its row segments
+     * into its own slice of a per-band partial, and the bands are summed in order. Bands are
+     * {@link #bandRows} high.
+     */
+    public float[] colSums() {
+        int bandRows = bandRows(rows, cols, ParallelFor.pool().getParallelism());
+        int bands = (rows + bandRows - 1) / bandRows;
+        float[] partial = new float[bands * cols];
+        forEachTileParallel(bandRows, STRIP_COLS, (r0, r1, c0, c1) -> {
+            int acc = r0 / bandRows * cols;
+            for (int r = r0; r < r1; r++) addInto(partial, acc + c0, data, r * cols + c0, c1 - c0);
+        });
+        double[] total = new double[cols];
+        for (int b = 0; b < bands; b++) {
+            for (int c = 0; c < cols; c++) total[c] += partial[b * cols + c];
+        }
+        float[] sums = new float[cols];
+        for (int c = 0; c < cols; c++) sums[c] = (float) total[c];
+        return sums;
+    }
+
+    /**
+     * Band height for {@link #colSums}: low enough for {@link #TILES_PER_THREAD} tiles per thread,
+     * within [{@link #MIN_BAND_ROWS}, {@link #BAND_ROWS}].
+     */
+    static int bandRows(int rows, int cols, int threads) {
+        int strips = Math.max(1, (cols + STRIP_COLS - 1) / STRIP_COLS);
+        int bands = Math.max(1, (threads * TILES_PER_THREAD + strips - 1) / strips);
+        return Math.clamp((rows + bands - 1) / bands, MIN_BAND_ROWS, BAND_ROWS);
+    }
+
+    /** Column means: {@link #colSums()} over the row count. */
+    public float[] colMeans() {
+        float[] m = colSums();
+        for (int c = 0; c < cols; c++) m[c] /= rows;
+        return m;
+    }
+
+    /** Matrix-vector product {@code this * v}: one SIMD dot product per row. */
+    public float[] multiply(float[] v) {
+        if (v.length != cols) throw new IllegalArgumentException("vector has " + v.length + " elements, matrix has " + cols + " columns");
+        float[] out = new float[rows];
+        int grain = Math.max(1, ParallelFor.grain(rows * cols, ParallelFor.pool().getParallelism()) / Math.max(1, cols));
+        ParallelFor.forRange(ParallelFor.pool(), rows, grain, (from, to) -> {
+            for (int r = from; r < to; r++) out[r] = Reductions.dot(data, r * cols, v, 0, cols);
+        });
+        return out;
+    }
+
+    /**
+     * The transpose, copied {@link #TILE} x {@link #TILE} blocks at a time: a block's source rows are
+     * read contiguously, and its 64 target rows are written while their lines are still in L1.
+     */
+    public FloatMatrix transpose() {
+        FloatMatrix t = new FloatMatrix(cols, rows);
+        float[] dst = t.data;
+        forEachTileParallel(TILE, TILE, (r0, r1, c0, c1) -> {
+            for (int r = r0; r < r1; r++) {
+                int src = r * cols;
+                for (int c = c0; c < c1; c++) dst[c * rows + r] = data[src + c];
+            }
+        });
+        return t;
+    }
+
+    // acc[accOff ..+length) += a[aOff ..+length)
+    private static void addInto(float[] acc, int accOff, float[] a, int aOff, int length) {
+        int i = 0;
+        int upper = SPECIES.loopBound(length);
+        for (; i < upper; i += L) {
+            FloatVector.fromArray(SPECIES, acc, accOff + i).add(FloatVector.fromArray(SPECIES, a, aOff + i))
+                    .intoArray(acc, accOff + i);
+        }
+        for (; i < length; i++) acc[accOff + i] += a[aOff + i];
+    }
+
+    private static int checkedSize(int rows, int cols) {
+        if (rows < 0 || cols < 0) throw new IllegalArgumentException("negative shape: " + rows + " x " + cols);
+        long size = (long) rows * cols;
+        if (size > Integer.MAX_VALUE - 8) throw new IllegalArgumentException(rows + " x " + cols + " is too large for one array");
+        return (int) size;
+    }
+
+    private static void checkTile(int tileRows, int tileCols) {
+        if (tileRows <= 0 || tileCols <= 0)
+            throw new IllegalArgumentException("tile must be positive: " + tileRows + " x " + tileCols);
+    }
+
+    /**
+     * Row sums, column sums and transpose on an 8192 x 8192 matrix (256 MB), against the
+     * column-at-a-time loops over the same flat array and over {@code float[][]}.
+     */
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 8192;
+        FloatMatrix m = new FloatMatrix(n, n);
+        RandomData.fillUniform(m.data, 42);
+        float[][] jagged = new float[n][];
+        for (int r = 0; r < n; r++) jagged[r] = Arrays.copyOfRange(m.data, r * n, (r + 1) * n);
+
+        for (int w = 0; w < 2; w++) { // warm-up
+            m.rowSums(); m.colSums(); naiveColSums(m); naiveColSums(jagged); m.transpose(); naiveTranspose(m);
+        }
+        long t0 = System.nanoTime();
+        float[] rs = m.rowSums();
+        long t1 = System.nanoTime();
+        float[] cs = m.colSums();
+        long t2 = System.nanoTime();
+        float[] ncs = naiveColSums(m);
+        long t3 = System.nanoTime();
+        naiveColSums(jagged);
+        long t4 = System.nanoTime();
+        FloatMatrix t = m.transpose();
+        long t5 = System.nanoTime();
+        naiveTranspose(m);
+        long t6 = System.nanoTime();
+
+        double maxErr = 0;
+        for (int c = 0; c < n; c++) maxErr = Math.max(maxErr, Math.abs(cs[c] - ncs[c]) / Math.abs(ncs[c]));
+        System.out.printf("%d x %d floats, %d threads%n", n, n, ParallelFor.pool().getParallelism());
+        System.out.printf("rowSums                  %7.1f ms%n", (t1 - t0) / 1e6);
+        System.out.printf("colSums (tiled)          %7.1f ms  (max rel. diff to naive %.1e)%n", (t2 - t1) / 1e6, maxErr);
+        System.out.printf("colSums naive, flat      %7.1f ms%n", (t3 - t2) / 1e6);
+        System.out.printf("colSums naive, float[][] %7.1f ms%n", (t4 - t3) / 1e6);
+        System.out.printf("transpose (blocked)      %7.1f ms  (t[1][0] == m[0][1]: %b, row sum 0 %.3f)%n",
+                (t5 - t4) / 1e6, t.get(1, 0) == m.get(0, 1), rs[0]);
+        System.out.printf("transpose naive          %7.1f ms%n", (t6 - t5) / 1e6);
+    }
+
+    private static float[] naiveColSums(FloatMatrix m) {
+        float[] sums = new float[m.cols];
+        for (int c = 0; c < m.cols; c++) {
+            double s = 0.0;
+            for (int r = 0; r < m.rows; r++) s += m.data[r * m.cols + c];
+            sums[c] = (float) s;
+        }
+        return sums;
+    }
+
+    private static float[] naiveColSums(float[][] m) {
+        float[] sums = new float[m[0].length];
+        for (int c = 0; c < sums.length; c++) {
+            double s = 0.0;
+            for (float[] row : m) s += row[c];
+            sums[c] = (float) s;
+        }
+        return sums;
+    }
+
+    private static FloatMatrix naiveTranspose(FloatMatrix m) {
+        FloatMatrix t = new FloatMatrix(m.cols, m.rows);
+        for (int r = 0; r < m.rows; r++) {
+            for (int c = 0; c < m.cols; c++) t.data[c * m.rows + r] = m.data[r * m.cols + c];
+        }
+        return t;
+    }
+}
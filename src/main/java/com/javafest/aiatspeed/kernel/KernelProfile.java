@@ -0,0 +1,127 @@
+package com.javafest.aiatspeed.kernel;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.function.IntFunction;
+
+/**
+ * Kernel settings for this host: float species, dot-product unroll factor and worker thread count.
+ * <p>
+ * The values are read once, when the class is initialized, into {@code static final} fields. The JIT
+ * treats them as constants, so kernels that use {@link #FLOAT_SPECIES} or switch on {@link #DOT_UNROLL}
+ * compile to the chosen variant with no dispatch cost per call. A species passed around as an
+ * ordinary argument would not be a constant and would drop the Vector API to its slow Java fallback.
+ * <p>
+ * Each setting comes from, in order of precedence:
+ * <ol>
+ *   <li>a system property ({@code aiatspeed.float.bits}, {@code aiatspeed.dot.unroll}, {@code aiatspeed.threads});</li>
+ *   <li>the profile file written by {@link Calibrator}, if it was measured on a matching host;</li>
+ *   <li>the defaults: {@code SPECIES_PREFERRED}, 4 accumulators, one thread per core.</li>
+ * </ol>
+ * The profile lives at {@code ~/.aiatspeed/kernel-profile.properties}; set {@code aiatspeed.profile}
+ * to use another file. A value that does not parse or is out of range, or a profile that cannot be
+ * read, is logged as a warning and replaced by the default: every kernel depends on this class, and
+ * a failed static initializer would take all of them down with {@code NoClassDefFoundError}.
+ */
+public final class KernelProfile {
+
+    static final String KEY_HOST = "host";
+    static final String KEY_FLOAT_BITS = "float.bits";
+    static final String KEY_DOT_UNROLL = "dot.unroll";
+    static final String KEY_THREADS = "threads";
+
+    private static final System.Logger LOG = System.getLogger(KernelProfile.class.getName());
+
+    public static final VectorSpecies<Float> FLOAT_SPECIES;
+    public static final int DOT_UNROLL;
+    public static final int THREADS;
+    /** Whether a calibrated profile for this host was found. */
+    public static final boolean CALIBRATED;
+
+    static {
+        Properties profile = load(path());
+        CALIBRATED = profile != null;
+        FLOAT_SPECIES = setting(profile, KEY_FLOAT_BITS, KernelProfile::floatSpecies, FloatVector.SPECIES_PREFERRED);
+        DOT_UNROLL = setting(profile, KEY_DOT_UNROLL, KernelProfile::unroll, 4);
+        THREADS = setting(profile, KEY_THREADS, KernelProfile::threads, Runtime.getRuntime().availableProcessors());
+    }
+
+    private KernelProfile() {
+    }
+
+    public static Path path() {
+        String p = System.getProperty("aiatspeed.profile");
+        return p != null ? Path.of(p) : Path.of(System.getProperty("user.home"), ".aiatspeed", "kernel-profile.properties");
+    }
+
+    /**
+     * Identifies the machine a profile was measured on. A profile copied to a different CPU, core
+     * count or JVM is ignored rather than trusted.
+     */
+    static String hostKey() {
+        return System.getProperty("os.arch") + "/" + Runtime.getRuntime().availableProcessors() + "cpu/"
+                + FloatVector.SPECIES_MAX.vectorBitSize() + "bit/" + System.getProperty("java.vm.version");
+    }
+
+    public static VectorSpecies<Float> floatSpecies(int bits) {
+        if (bits < 64 || bits > FloatVector.SPECIES_MAX.vectorBitSize() || Integer.bitCount(bits) != 1)
+            throw new IllegalArgumentException("unsupported float vector size " + bits + " bits (max "
+                    + FloatVector.SPECIES_MAX.vectorBitSize() + ")");
+        return VectorSpecies.of(float.class, VectorShape.forBitSize(bits));
+    }
+
+    static int unroll(int u) {
+        if (u != 1 && u != 2 && u != 4 && u != 8)
+            throw new IllegalArgumentException("dot unroll must be 1, 2, 4 or 8: " + u);
+        return u;
+    }
+
+    static int threads(int t) {
+        if (t <= 0) throw new IllegalArgumentException("threads must be positive: " + t);
+        return t;
+    }
+
+    // The system property, else the profile's value, else the fallback; invalid values warn and fall back
+    private static <T> T setting(Properties profile, String key, IntFunction<T> parse, T fallback) {
+        String source = "system property aiatspeed." + key;
+        String v = System.getProperty("aiatspeed." + key);
+        if (v == null && profile != null) {
+            source = "profile key " + key;
+            v = profile.getProperty(key);
+        }
+        if (v == null) return fallback;
+        try {
+            return parse.apply(Integer.parseInt(v.trim()));
+        } catch (IllegalArgumentException e) { // includes NumberFormatException
+            LOG.log(System.Logger.Level.WARNING, "Ignoring " + source + "=" + v + " (" + e.getMessage()
+                    + "), using the default " + fallback);
+            return fallback;
+        }
+    }
+
+    // null when there is no profile, or it belongs to another host
+    private static Properties load(Path file) {
+        if (!Files.isReadable(file)) return null;
+        Properties p = new Properties();
+        try (Reader r = Files.newBufferedReader(file)) {
+            p.load(r);
+        } catch (IOException | IllegalArgumentException e) { // IAE: a malformed unicode escape
+            LOG.log(System.Logger.Level.WARNING, "Ignoring unreadable kernel profile " + file + ": " + e);
+            return null;
+        }
+        return hostKey().equals(p.getProperty(KEY_HOST)) ? p : null;
+    }
+
+    public static String describe() {
+        return String.format("species=%d-bit (%d lanes), dot unroll=%d, threads=%d, %s",
+                FLOAT_SPECIES.vectorBitSize(), FLOAT_SPECIES.length(), DOT_UNROLL, THREADS,
+                CALIBRATED ? "calibrated profile " + path() : "defaults (run Calibrator to tune)");
+    }
+}
@@ -0,0 +1,172 @@
+package com.javafest.aiatspeed.kernel;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * A long-indexed float vector in native memory, for lengths past the {@code int} index limit of
+ * {@code float[]}.
+ * <p>
+ * The storage is a 64-byte-aligned {@link MemorySegment} from a caller-supplied {@link Arena}. The GC
+ * never scans, copies or compacts it. It is capped by {@code -XX:MaxDirectMemorySize} (which
+ * defaults to the heap size), not by the heap itself, so run huge jobs with a small heap and a large
+ * direct-memory limit. The arena decides its lifetime: a try-with-resources {@code Arena.ofShared()}
+ * frees gigabytes of scratch deterministically at the end of a job instead of whenever a full GC gets
+ * to them. A shared arena is needed for the parallel kernels, which touch the segment from pool threads.
+ * <p>
+ * {@link #dot}, {@link #cosine} and {@link #saxpy} split the index range into fixed
+ * {@link #CHUNK}-element chunks. Each chunk runs the int-length {@link SegmentKernels} on the
+ * fork-join pool, and partial sums are combined in chunk order in {@code double}. As in
+ * {@link ParallelReductions}, the result does not depend on the thread count, and float error stays
+ * bounded by the chunk length even for 10^9+ elements.
+ */
+public final class OffHeapFloats {
+
+    /** Elements per chunk: a multiple of every species length. */
+    static final int CHUNK = 1 << 16;
+    private static final long ALIGN_BYTES = 64;
+
+    private final MemorySegment segment;
+    private final long length;
+
+    private OffHeapFloats(MemorySegment segment, long length) {
+        this.segment = segment;
+        this.length = length;
+    }
+
+    /**
+     * Allocates {@code length} zeroed floats in {@code arena}; they are freed when the arena is closed.
+     */
+    public static OffHeapFloats allocate(Arena arena, long length) {
+        if (length < 0) throw new IllegalArgumentException("negative length: " + length);
+        return new OffHeapFloats(arena.allocate(length * Float.BYTES, ALIGN_BYTES), length);
+    }
+
+    /** Wraps existing float data, e.g. rows of a mapped file; {@code segment.byteSize()} must be a multiple of 4. */
+    public static OffHeapFloats wrap(MemorySegment segment) {
+        if (segment.byteSize() % Float.BYTES != 0)
+            throw new IllegalArgumentException("segment size " + segment.byteSize() + " is not a whole number of floats");
+        return new OffHeapFloats(segment, segment.byteSize() / Float.BYTES);
+    }
+
+    public long length() {
+        return length;
+    }
+
+    public MemorySegment segment() {
+        return segment;
+    }
+
+    public float get(long i) {
+        return segment.getAtIndex(SegmentKernels.FLOAT, i);
+    }
+
+    public void set(long i, float v) {
+        segment.setAtIndex(SegmentKernels.FLOAT, i, v);
+    }
+
+    /** Copies {@code src[srcOffset .. srcOffset+count)} to elements starting at {@code index}. */
+    public void copyFrom(float[] src, int srcOffset, long index, int count) {
+        MemorySegment.copy(src, srcOffset, segment, SegmentKernels.FLOAT, index * Float.BYTES, count);
+    }
+
+    /** Fills with uniform values in [-0.5, 0.5), one deterministic {@link SplittableRandom} stream per chunk. */
+    public void fillRandom(long seed) {
+        SplittableRandom root = new SplittableRandom(seed);
+        int chunks = chunks(length);
+        SplittableRandom[] streams = new SplittableRandom[chunks];
+        for (int c = 0; c < chunks; c++) streams[c] = root.split();
+        IntStream.range(0, chunks).parallel().forEach(c -> {
+            SplittableRandom r = streams[c];
+            long from = (long) c * CHUNK, to = Math.min(length, from + CHUNK);
+            for (long i = from; i < to; i++) set(i, (float) r.nextDouble() - 0.5f);
+        });
+    }
+
+    public static float dot(OffHeapFloats a, OffHeapFloats b) {
+        checkLengths(a, b);
+        int chunks = chunks(a.length);
+        float[] partial = new float[chunks];
+        IntStream.range(0, chunks).parallel().forEach(c -> {
+            long off = (long) c * CHUNK * Float.BYTES;
+            partial[c] = SegmentKernels.dot(a.segment, off, b.segment, off, chunkLength(a.length, c));
+        });
+        double sum = 0.0;
+        for (float p : partial) sum += p;
+        return (float) sum;
+    }
+
+    public static float cosine(OffHeapFloats a, OffHeapFloats b) {
+        checkLengths(a, b);
+        int chunks = chunks(a.length);
+        float[] partial = new float[3 * chunks];
+        IntStream.range(0, chunks).parallel().forEach(c -> {
+            long off = (long) c * CHUNK * Float.BYTES;
+            SegmentKernels.cosineParts(a.segment, off, b.segment, off, chunkLength(a.length, c), partial, 3 * c);
+        });
+        double dot = 0.0, na = 0.0, nb = 0.0;
+        for (int c = 0; c < chunks; c++) {
+            dot += partial[3 * c];
+            na += partial[3 * c + 1];
+            nb += partial[3 * c + 2];
+        }
+        return (float) (dot / (Math.sqrt(na) * Math.sqrt(nb)));
+    }
+
+    /** {@code y += alpha * x}, in place. */
+    public static void saxpy(float alpha, OffHeapFloats x, OffHeapFloats y) {
+        checkLengths(x, y);
+        IntStream.range(0, chunks(x.length)).parallel().forEach(c -> {
+            long off = (long) c * CHUNK * Float.BYTES;
+            SegmentKernels.saxpy(alpha, x.segment, off, y.segment, off, chunkLength(x.length, c));
+        });
+    }
+
+    private static int chunks(long length) {
+        long chunks = (length + CHUNK - 1) / CHUNK;
+        if (chunks > Integer.MAX_VALUE) throw new IllegalArgumentException("too many elements: " + length);
+        return (int) chunks;
+    }
+
+    private static int chunkLength(long length, int chunk) {
+        return (int) Math.min(CHUNK, length - (long) chunk * CHUNK);
+    }
+
+    private static void checkLengths(OffHeapFloats a, OffHeapFloats b) {
+        if (a.length != b.length)
+            throw new IllegalArgumentException("length mismatch: " + a.length + " vs " + b.length);
+    }
+
+    /**
+     * Usage: {@code OffHeapFloats [elements]}; the default, 3 billion, is past what a {@code float[]}
+     * can index and needs 24 GB of native memory ({@code -XX:MaxDirectMemorySize=25g}).
+     */
+    public static void main(String[] args) {
+        long n = args.length > 0 ? Long.parseLong(args[0]) : 3_000_000_000L;
+        try (Arena arena = Arena.ofShared()) {
+            long t0 = System.nanoTime();
+            OffHeapFloats a = allocate(arena, n);
+            OffHeapFloats b = allocate(arena, n);
+            a.fillRandom(1);
+            b.fillRandom(2);
+            System.out.printf("Allocated and filled 2 x %,d floats (%d MB) off-heap in %d ms; heap used %d MB%n",
+                    n, 2 * n * Float.BYTES >> 20, (System.nanoTime() - t0) / 1_000_000,
+                    (Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) >> 20);
+
+            for (int w = 0; w < 2; w++) { dot(a, b); cosine(a, b); } // warm-up
+            t0 = System.nanoTime();
+            float d = dot(a, b);
+            long t1 = System.nanoTime();
+            float cos = cosine(a, b);
+            long t2 = System.nanoTime();
+            saxpy(0.5f, a, b);
+            long t3 = System.nanoTime();
+            System.out.printf("dot    %6d ms (%.6g)%n", (t1 - t0) / 1_000_000, d);
+            System.out.printf("cosine %6d ms (%.6f)%n", (t2 - t1) / 1_000_000, cos);
+            System.out.printf("saxpy  %6d ms, %.2f GB/s%n", (t3 - t2) / 1_000_000, 3.0 * n * Float.BYTES / (t3 - t2));
+        }
+        // The arena is closed: both buffers are already returned to the OS, with no GC involved
+    }
+}
@@ -0,0 +1,146 @@
+package com.javafest.aiatspeed.kernel;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Parallel-for engine for SIMD loops over {@code [0, length)}.
+ * <p>
+ * Splitting {@code availableProcessors()} ways up front has two problems. Chunk starts are generally
+ * not multiples of the lane count, so every chunk needs its own scalar head and tail and neighbouring
+ * chunks share cache lines. And one slow core, or a noisy neighbour, holds up the whole loop because
+ * nobody else can take over its fixed share. This engine instead:
+ * <ul>
+ *   <li>splits only at multiples of {@link #ALIGN} elements: whole vectors and whole 64-byte cache lines
+ *   (for arrays whose data starts on a line), so a body sees at most one tail, at the very end;</li>
+ *   <li>recursively halves the range into about {@code 8 x threads} leaves (never smaller than
+ *   {@link #MIN_GRAIN}), forking one half and working on the other, so idle workers steal the
+ *   largest pending pieces first;</li>
+ *   <li>runs on its own {@link ForkJoinPool}, so kernels don't compete with unrelated parallel
+ *   streams in the common pool. Its size is {@link KernelProfile#THREADS}: the core count unless
+ *   calibration or the {@code aiatspeed.threads} system property says otherwise.</li>
+ * </ul>
+ * Bodies receive {@code [from, to)}; the vector bound inside a body is
+ * {@code from + SPECIES.loopBound(to - from)}, not {@code loopBound(to)}.
+ * <p>
+ * {@link #forTasks} is the same engine over task indices (tiles, batches, per-thread ranges) rather
+ * than elements: each index is already a coarse unit of work, so it splits down to single tasks,
+ * with no alignment and no minimum grain.
+ */
+public final class ParallelFor {
+
+    /** A loop body over the half-open index range {@code [from, to)}. */
+    @FunctionalInterface
+    public interface Body {
+        void run(int from, int to);
+    }
+
+    /** Split granularity in elements: a whole number of float vectors and of 64-byte cache lines. */
+    public static final int ALIGN = Math.max(16, KernelProfile.FLOAT_SPECIES.length());
+    /** Smallest leaf worth a task: about 64 KB per float array. */
+    static final int MIN_GRAIN = 16 * 1024;
+    private static final int LEAVES_PER_THREAD = 8;
+
+    private static final ForkJoinPool POOL = newPool(KernelProfile.THREADS);
+
+    private ParallelFor() {
+    }
+
+    /**
+     * A pool of {@code threads} daemon workers named {@code vector-worker-N}; used by the default
+     * engine and by benchmarks that measure thread scaling.
+     */
+    public static ForkJoinPool newPool(int threads) {
+        if (threads <= 0) throw new IllegalArgumentException("threads must be positive: " + threads);
+        // getPoolIndex() is only assigned once the worker starts, so number the threads here
+        AtomicInteger next = new AtomicInteger();
+        return new ForkJoinPool(threads, pool -> {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            t.setName("vector-worker-" + next.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        }, null, false);
+    }
+
+    /** The engine's default pool. */
+    public static ForkJoinPool pool() {
+        return POOL;
+    }
+
+    public static void forRange(int length, Body body) {
+        forRange(POOL, length, body);
+    }
+
+    public static void forRange(ForkJoinPool pool, int length, Body body) {
+        forRange(pool, length, grain(length, pool.getParallelism()), body);
+    }
+
+    /**
+     * Runs {@code body} over {@code [0, length)} on {@code pool}, splitting no finer than
+     * {@code grain} elements (rounded up to {@link #ALIGN}).
+     */
+    public static void forRange(ForkJoinPool pool, int length, int grain, Body body) {
+        if (length < 0) throw new IllegalArgumentException("negative length: " + length);
+        if (grain <= 0) throw new IllegalArgumentException("grain must be positive: " + grain);
+        int g = align(grain);
+        if (length <= g || pool.getParallelism() == 1) {
+            body.run(0, length);
+            return;
+        }
+        pool.invoke(new RangeTask(body, 0, length, g, -ALIGN));
+    }
+
+    /**
+     * Runs {@code body} over the task indices {@code [0, count)} on {@code pool}, one task per leaf:
+     * unlike {@link #forRange}, {@code count} is not rounded to {@link #ALIGN} or held to
+     * {@link #MIN_GRAIN}, so even a handful of tasks spreads over the workers.
+     */
+    public static void forTasks(ForkJoinPool pool, int count, Body body) {
+        if (count < 0) throw new IllegalArgumentException("negative task count: " + count);
+        if (count <= 1 || pool.getParallelism() == 1) {
+            body.run(0, count);
+            return;
+        }
+        pool.invoke(new RangeTask(body, 0, count, 1, -1));
+    }
+
+    /** Leaf size giving each worker several leaves to balance with, but no leaf below {@link #MIN_GRAIN}. */
+    static int grain(int length, int threads) {
+        return align(Math.max(MIN_GRAIN, length / (threads * LEAVES_PER_THREAD)));
+    }
+
+    private static int align(int n) {
+        return (int) Math.min(Integer.MAX_VALUE & -ALIGN, ((long) n + ALIGN - 1) & -ALIGN);
+    }
+
+    private static final class RangeTask extends RecursiveAction {
+        private final Body body;
+        private final int from, to, grain, alignMask;
+
+        RangeTask(Body body, int from, int to, int grain, int alignMask) {
+            this.body = body;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+            this.alignMask = alignMask;
+        }
+
+        @Override
+        protected void compute() {
+            // from is always aligned, so an aligned half keeps mid aligned too
+            int half = ((to - from) >>> 1) & alignMask;
+            if (to - from <= grain || half == 0) {
+                body.run(from, to);
+                return;
+            }
+            int mid = from + half;
+            RangeTask right = new RangeTask(body, mid, to, grain, alignMask);
+            right.fork();
+            new RangeTask(body, from, mid, grain, alignMask).compute();
+            // join() runs the right half here if nobody stole it, or helps with other work while waiting
+            right.join();
+        }
+    }
+}
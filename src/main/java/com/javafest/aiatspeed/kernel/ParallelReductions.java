@@ -0,0 +1,84 @@
+package com.javafest.aiatspeed.kernel;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Multi-core dot product and cosine for very long vectors, with reproducible results.
+ * <p>
+ * The input is cut into fixed chunks of {@link #CHUNK} elements. The chunk size is a multiple of every
+ * vector species length, so each chunk's SIMD loop starts lane-aligned. Each chunk is reduced on
+ * the fork-join pool by the single-threaded kernels in {@link Reductions} into its own slot of a
+ * partials array, and the partials are then summed in chunk order in {@code double}.
+ * Chunk boundaries depend only on the length, never on the thread count or on which worker ran
+ * which chunk, so the result is bit-identical across runs and pool sizes.
+ */
+public class ParallelReductions {
+
+    /** Elements per chunk: 256 KB per float array, large enough to amortize task overhead. */
+    static final int CHUNK = 1 << 16;
+
+    public static float dot(float[] a, float[] b) {
+        checkLengths(a, b);
+        int n = a.length;
+        int chunks = (n + CHUNK - 1) / CHUNK;
+        float[] partial = new float[chunks];
+        IntStream.range(0, chunks).parallel().forEach(c -> {
+            int from = c * CHUNK;
+            partial[c] = Reductions.dot(a, from, b, from, Math.min(CHUNK, n - from));
+        });
+        double sum = 0.0;
+        for (float p : partial) sum += p;
+        return (float) sum;
+    }
+
+    public static float cosine(float[] a, float[] b) {
+        checkLengths(a, b);
+        int n = a.length;
+        int chunks = (n + CHUNK - 1) / CHUNK;
+        float[] partial = new float[3 * chunks];
+        IntStream.range(0, chunks).parallel().forEach(c -> {
+            int from = c * CHUNK;
+            Reductions.cosineParts(a, from, b, from, Math.min(CHUNK, n - from), partial, 3 * c);
+        });
+        double dot = 0.0, na = 0.0, nb = 0.0;
+        for (int c = 0; c < chunks; c++) {
+            dot += partial[3 * c];
+            na += partial[3 * c + 1];
+            nb += partial[3 * c + 2];
+        }
+        return (float) (dot / (Math.sqrt(na) * Math.sqrt(nb)));
+    }
+
+    private static void checkLengths(float[] a, float[] b) {
+        if (a.length != b.length)
+            throw new IllegalArgumentException("length mismatch: " + a.length + " vs " + b.length);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int n = 100_000_000;
+        float[] a = new float[n];
+        float[] b = new float[n];
+        Random r = new Random(123);
+        for (int i = 0; i < n; i++) { a[i] = r.nextFloat(); b[i] = r.nextFloat(); }
+
+        // warmup
+        Reductions.cosine(a, 0, b, 0, n);
+        cosine(a, b);
+
+        long t0 = System.nanoTime();
+        float single = Reductions.cosine(a, 0, b, 0, n);
+        System.out.printf("Single-threaded cosine : %5d ms (result %.9f)%n", (System.nanoTime() - t0) / 1_000_000, single);
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads : new int[]{1, 2, 4, cores}) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            t0 = System.nanoTime();
+            // A parallel stream started inside a pool task runs on that pool
+            float res = pool.submit(() -> cosine(a, b)).get();
+            System.out.printf("Parallel cosine, %2d threads: %5d ms (result %.9f, bits %08x)%n",
+                    threads, (System.nanoTime() - t0) / 1_000_000, res, Float.floatToIntBits(res));
+            pool.shutdown();
+        }
+    }
+}
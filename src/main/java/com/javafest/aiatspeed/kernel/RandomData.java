@@ -0,0 +1,161 @@
+package com.javafest.aiatspeed.kernel;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.util.Random;
+import java.util.SplittableRandom;
+
+/**
+ * Fast, seedable bulk generator for demo and benchmark inputs.
+ * <p>
+ * Filling hundreds of millions of elements with {@link Random#nextFloat()} in a loop is serial, and
+ * every step depends on the previous one, so it often takes longer than the benchmark. This
+ * generator uses the SplitMix64 stream behind {@link SplittableRandom}. Value {@code i} of the stream
+ * for {@code seed} is {@code mix64(seed + (i + 1) * GAMMA)}, the {@code i}-th {@code nextLong()} of
+ * {@code new SplittableRandom(seed)}. Because any position can be computed directly:
+ * <ul>
+ *   <li>each {@link ParallelFor} chunk jumps straight to its own part of the stream, so the output
+ *   is identical for any thread count and any split;</li>
+ *   <li>within a chunk, a whole {@link LongVector} of consecutive positions is mixed at once, then
+ *   converted lane-wise to floats, ints or booleans, with no per-element dependency.</li>
+ * </ul>
+ * Element {@code i} of a filled array always comes from stream value {@code i}. Two arrays filled
+ * from one seed are therefore equal; use a different seed for each array.
+ */
+public final class RandomData {
+
+    /** The SplitMix64 increment, the odd 64-bit fractional part of the golden ratio. */
+    private static final long GAMMA = 0x9e3779b97f4a7c15L;
+
+    // Longs at the width of the profile's float species, but at least 128 bits so the half-width
+    // float and int species below (same lane count) are at least 64 bits, the smallest legal shape
+    private static final VectorSpecies<Long> LONG_SPECIES = VectorSpecies.of(long.class,
+            VectorShape.forBitSize(Math.max(128, KernelProfile.FLOAT_SPECIES.vectorBitSize())));
+    private static final int L = LONG_SPECIES.length();
+    private static final VectorSpecies<Float> HALF_FLOAT =
+            VectorSpecies.of(float.class, VectorShape.forBitSize(L * Float.SIZE));
+    private static final VectorSpecies<Integer> HALF_INT =
+            VectorSpecies.of(int.class, VectorShape.forBitSize(L * Integer.SIZE));
+    private static final float UNIT = 0x1.0p-24f;
+
+    private RandomData() {
+    }
+
+    /** Stream value {@code index} for {@code seed}: the same as the {@code (index+1)}-th {@code SplittableRandom(seed).nextLong()}. */
+    public static long at(long seed, long index) {
+        return mix64(seed + (index + 1) * GAMMA);
+    }
+
+    /** A new array of {@code n} uniform floats in [0, 1). */
+    public static float[] uniform(int n, long seed) {
+        float[] a = new float[n];
+        fillUniform(a, 0f, 1f, seed);
+        return a;
+    }
+
+    /** Fills {@code dst} with uniform floats in [0, 1). */
+    public static void fillUniform(float[] dst, long seed) {
+        fillUniform(dst, 0f, 1f, seed);
+    }
+
+    /** Fills {@code dst} with uniform floats in [lo, hi). */
+    public static void fillUniform(float[] dst, float lo, float hi, long seed) {
+        ParallelFor.forRange(dst.length, (from, to) -> uniform(dst, from, to, lo, hi - lo, seed, 0));
+    }
+
+    /**
+     * {@code rows} arrays of {@code dim} uniform floats in [lo, hi); row {@code r} holds stream values
+     * {@code r*dim ..}, as if the rows were one flat array.
+     */
+    public static float[][] uniformRows(int rows, int dim, float lo, float hi, long seed) {
+        float[][] m = new float[rows][dim];
+        ParallelFor.forRange(rows, (from, to) -> {
+            for (int r = from; r < to; r++) uniform(m[r], 0, dim, lo, hi - lo, seed, (long) r * dim);
+        });
+        return m;
+    }
+
+    /** Fills {@code dst} with uniform ints in [0, bound), by multiply-shift. The bias is below 2^-32 · bound. */
+    public static void fillInts(int[] dst, int bound, long seed) {
+        if (bound <= 0) throw new IllegalArgumentException("bound must be positive: " + bound);
+        ParallelFor.forRange(dst.length, (from, to) -> {
+            LongVector state = start(seed, from);
+            LongVector step = LongVector.broadcast(LONG_SPECIES, L * GAMMA);
+            int i = from;
+            int upper = from + LONG_SPECIES.loopBound(to - from);
+            for (; i < upper; i += L, state = state.add(step)) {
+                LongVector v = mix64(state).lanewise(VectorOperators.LSHR, 32).mul(bound).lanewise(VectorOperators.LSHR, 32);
+                ((IntVector) v.convertShape(VectorOperators.L2I, HALF_INT, 0)).intoArray(dst, i);
+            }
+            for (; i < to; i++) dst[i] = (int) (((at(seed, i) >>> 32) * bound) >>> 32);
+        });
+    }
+
+    /** Fills {@code dst} with fair coin flips: the sign bit of each stream value. */
+    public static void fillBooleans(boolean[] dst, long seed) {
+        ParallelFor.forRange(dst.length, (from, to) -> {
+            LongVector state = start(seed, from);
+            LongVector step = LongVector.broadcast(LONG_SPECIES, L * GAMMA);
+            int i = from;
+            int upper = from + LONG_SPECIES.loopBound(to - from);
+            for (; i < upper; i += L, state = state.add(step)) {
+                mix64(state).compare(VectorOperators.LT, 0L).intoArray(dst, i);
+            }
+            for (; i < to; i++) dst[i] = at(seed, i) < 0;
+        });
+    }
+
+    // dst[from, to) from stream values first+from ..; the top 24 bits give an exact float in [0, 1)
+    private static void uniform(float[] dst, int from, int to, float lo, float scale, long seed, long first) {
+        LongVector state = start(seed, first + from);
+        LongVector step = LongVector.broadcast(LONG_SPECIES, L * GAMMA);
+        FloatVector vs = FloatVector.broadcast(HALF_FLOAT, scale * UNIT);
+        FloatVector vlo = FloatVector.broadcast(HALF_FLOAT, lo);
+        int i = from;
+        int upper = from + LONG_SPECIES.loopBound(to - from);
+        for (; i < upper; i += L, state = state.add(step)) {
+            FloatVector u = (FloatVector) mix64(state).lanewise(VectorOperators.LSHR, 40)
+                    .convertShape(VectorOperators.L2F, HALF_FLOAT, 0);
+            u.fma(vs, vlo).intoArray(dst, i);
+        }
+        for (; i < to; i++) dst[i] = Math.fma((float) (at(seed, first + i) >>> 40), scale * UNIT, lo);
+    }
+
+    // Pre-mix states of stream values index, index+1, .. index+L-1
+    private static LongVector start(long seed, long index) {
+        return LongVector.broadcast(LONG_SPECIES, seed + (index + 1) * GAMMA)
+                .add(LongVector.zero(LONG_SPECIES).addIndex(1).mul(GAMMA));
+    }
+
+    private static LongVector mix64(LongVector z) {
+        z = z.lanewise(VectorOperators.XOR, z.lanewise(VectorOperators.LSHR, 30)).mul(0xbf58476d1ce4e5b9L);
+        z = z.lanewise(VectorOperators.XOR, z.lanewise(VectorOperators.LSHR, 27)).mul(0x94d049bb133111ebL);
+        return z.lanewise(VectorOperators.XOR, z.lanewise(VectorOperators.LSHR, 31));
+    }
+
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /** Times a 100M-float fill against the serial {@link Random} loop it replaces. */
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 100_000_000;
+        float[] a = new float[n];
+        for (int w = 0; w < 3; w++) fillUniform(a, w); // warm-up
+        long t0 = System.nanoTime();
+        Random r = new Random(1);
+        for (int i = 0; i < n; i++) a[i] = r.nextFloat();
+        long t1 = System.nanoTime();
+        fillUniform(a, 1);
+        long t2 = System.nanoTime();
+        System.out.printf("%,d floats: Random.nextFloat loop %d ms on one thread, RandomData.fillUniform %d ms on the ParallelFor pool (%d thread(s), %d lanes)%n",
+                n, (t1 - t0) / 1_000_000, (t2 - t1) / 1_000_000, ParallelFor.pool().getParallelism(), L);
+    }
+}
@@ -0,0 +1,242 @@
+package com.javafest.aiatspeed.kernel;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Allocation-free SIMD reduction kernels with independent accumulators.
+ * <p>
+ * A loop of the form {@code acc = acc.add(va.mul(vb))} is one dependency chain: every iteration waits
+ * for the previous add, so it runs at one vector per FMA <em>latency</em> (about 4 cycles) even though
+ * the core can start two FMAs per cycle. Splitting the sum over 2, 4 or 8 accumulators gives the
+ * out-of-order engine independent chains to overlap, which matters most when the data is already in
+ * L1/L2 and the loop is not waiting on memory. Partial vectors are combined with {@code add} and
+ * reduced once with {@link FloatVector#reduceLanes}, so no scratch array is allocated per call.
+ * <p>
+ * All kernels take offsets so that rows of a flat row-major matrix can be reduced in place. The species
+ * is {@link KernelProfile#FLOAT_SPECIES}: the preferred one unless calibration picked another.
+ */
+public class Reductions {
+
+    static final VectorSpecies<Float> SPECIES = KernelProfile.FLOAT_SPECIES;
+    private static final int L = SPECIES.length();
+
+    /**
+     * Dot product with the host's calibrated unroll ({@link KernelProfile#DOT_UNROLL}, 4 by default).
+     * The switch is on a static final, so the JIT keeps only the chosen branch.
+     */
+    public static float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        return switch (KernelProfile.DOT_UNROLL) {
+            case 1 -> dot1(a, aOffset, b, bOffset, length);
+            case 2 -> dot2(a, aOffset, b, bOffset, length);
+            case 8 -> dot8(a, aOffset, b, bOffset, length);
+            default -> dot4(a, aOffset, b, bOffset, length);
+        };
+    }
+
+    public static float dot(float[] a, float[] b) {
+        return dot(a, 0, b, 0, a.length);
+    }
+
+    /**
+     * Single accumulator chain; the latency-bound baseline.
+     */
+    public static float dot1(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        FloatVector acc = FloatVector.zero(SPECIES);
+        int i = 0;
+        int upper = SPECIES.loopBound(length);
+        for (; i < upper; i += L) {
+            acc = FloatVector.fromArray(SPECIES, a, aOffset + i)
+                    .fma(FloatVector.fromArray(SPECIES, b, bOffset + i), acc);
+        }
+        return acc.reduceLanes(VectorOperators.ADD) + dotTail(a, aOffset, b, bOffset, i, length);
+    }
+
+    public static float dot2(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        FloatVector acc0 = FloatVector.zero(SPECIES);
+        FloatVector acc1 = FloatVector.zero(SPECIES);
+        int i = 0;
+        int upper2 = length - length % (2 * L);
+        for (; i < upper2; i += 2 * L) {
+            acc0 = FloatVector.fromArray(SPECIES, a, aOffset + i)
+                    .fma(FloatVector.fromArray(SPECIES, b, bOffset + i), acc0);
+            acc1 = FloatVector.fromArray(SPECIES, a, aOffset + i + L)
+                    .fma(FloatVector.fromArray(SPECIES, b, bOffset + i + L), acc1);
+        }
+        int upper = SPECIES.loopBound(length);
+        for (; i < upper; i += L) {
+            acc0 = FloatVector.fromArray(SPECIES, a, aOffset + i)
+                    .fma(FloatVector.fromArray(SPECIES, b, bOffset + i), acc0);
+        }
+        return acc0.add(acc1).reduceLanes(VectorOperators.ADD) + dotTail(a, aOffset, b, bOffset, i, length);
+    }
+
+    public static float dot4(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        FloatVector acc0 = FloatVector.zero(SPECIES);
+        FloatVector acc1 = FloatVector.zero(SPECIES);
+        FloatVector acc2 = FloatVector.zero(SPECIES);
+        FloatVector acc3 = FloatVector.zero(SPECIES);
+        int i = 0;
+        int upper4 = length - length % (4 * L);
+        for (; i < upper4; i += 4 * L) {
+            acc0 = FloatVector.fromArray(SPECIES, a, aOffset + i)
+                    .fma(FloatVector.fromArray(SPECIES, b, bOffset + i), acc0);
+            acc1 = FloatVector.fromArray(SPECIES, a, aOffset + i + L)
+                    .fma(FloatVector.fromArray(SPECIES, b, bOffset + i + L), acc1);
+            acc2 = FloatVector.fromArray(SPECIES, a, aOffset + i + 2 * L)
+                    .fma(FloatVector.fromArray(SPECIES, b, bOffset + i + 2 * L), acc2);
+            acc3 = FloatVector.fromArray(SPECIES, a, aOffset + i + 3 * L)
+                    .fma(FloatVector.fromArray(SPECIES, b, bOffset + i + 3 * L), acc3);
+        }
+        int upper = SPECIES.loopBound(length);
+        for (; i < upper; i += L) {
+            acc0 = FloatVector.fromArray(SPECIES, a, aOffset + i)
+                    .fma(FloatVector.fromArray(SPECIES, b, bOffset + i), acc0);
+        }
+        return acc0.add(acc1).add(acc2.add(acc3)).reduceLanes(VectorOperators.ADD)
+                + dotTail(a, aOffset, b, bOffset, i, length);
+    }
+
+    public static float dot8(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        FloatVector acc0 = FloatVector.zero(SPECIES), acc1 = FloatVector.zero(SPECIES);
+        FloatVector acc2 = FloatVector.zero(SPECIES), acc3 = FloatVector.zero(SPECIES);
+        FloatVector acc4 = FloatVector.zero(SPECIES), acc5 = FloatVector.zero(SPECIES);
+        FloatVector acc6 = FloatVector.zero(SPECIES), acc7 = FloatVector.zero(SPECIES);
+        int i = 0;
+        int upper8 = length - length % (8 * L);
+        for (; i < upper8; i += 8 * L) {
+            int ai = aOffset + i, bi = bOffset + i;
+            acc0 = FloatVector.fromArray(SPECIES, a, ai).fma(FloatVector.fromArray(SPECIES, b, bi), acc0);
+            acc1 = FloatVector.fromArray(SPECIES, a, ai + L).fma(FloatVector.fromArray(SPECIES, b, bi + L), acc1);
+            acc2 = FloatVector.fromArray(SPECIES, a, ai + 2 * L).fma(FloatVector.fromArray(SPECIES, b, bi + 2 * L), acc2);
+            acc3 = FloatVector.fromArray(SPECIES, a, ai + 3 * L).fma(FloatVector.fromArray(SPECIES, b, bi + 3 * L), acc3);
+            acc4 = FloatVector.fromArray(SPECIES, a, ai + 4 * L).fma(FloatVector.fromArray(SPECIES, b, bi + 4 * L), acc4);
+            acc5 = FloatVector.fromArray(SPECIES, a, ai + 5 * L).fma(FloatVector.fromArray(SPECIES, b, bi + 5 * L), acc5);
+            acc6 = FloatVector.fromArray(SPECIES, a, ai + 6 * L).fma(FloatVector.fromArray(SPECIES, b, bi + 6 * L), acc6);
+            acc7 = FloatVector.fromArray(SPECIES, a, ai + 7 * L).fma(FloatVector.fromArray(SPECIES, b, bi + 7 * L), acc7);
+        }
+        int upper = SPECIES.loopBound(length);
+        for (; i < upper; i += L) {
+            acc0 = FloatVector.fromArray(SPECIES, a, aOffset + i)
+                    .fma(FloatVector.fromArray(SPECIES, b, bOffset + i), acc0);
+        }
+        FloatVector acc = acc0.add(acc1).add(acc2.add(acc3)).add(acc4.add(acc5).add(acc6.add(acc7)));
+        return acc.reduceLanes(VectorOperators.ADD) + dotTail(a, aOffset, b, bOffset, i, length);
+    }
+
+    /**
+     * Sum of {@code a[offset .. offset+length)}, 4 accumulators.
+     */
+    public static float sum(float[] a, int offset, int length) {
+        FloatVector acc0 = FloatVector.zero(SPECIES);
+        FloatVector acc1 = FloatVector.zero(SPECIES);
+        FloatVector acc2 = FloatVector.zero(SPECIES);
+        FloatVector acc3 = FloatVector.zero(SPECIES);
+        int i = 0;
+        int upper4 = length - length % (4 * L);
+        for (; i < upper4; i += 4 * L) {
+            acc0 = acc0.add(FloatVector.fromArray(SPECIES, a, offset + i));
+            acc1 = acc1.add(FloatVector.fromArray(SPECIES, a, offset + i + L));
+            acc2 = acc2.add(FloatVector.fromArray(SPECIES, a, offset + i + 2 * L));
+            acc3 = acc3.add(FloatVector.fromArray(SPECIES, a, offset + i + 3 * L));
+        }
+        int upper = SPECIES.loopBound(length);
+        for (; i < upper; i += L) acc0 = acc0.add(FloatVector.fromArray(SPECIES, a, offset + i));
+        float s = acc0.add(acc1).add(acc2.add(acc3)).reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) s += a[offset + i];
+        return s;
+    }
+
+    /**
+     * Cosine similarity in one pass: dot, |a|^2 and |b|^2 each split over 2 accumulators (6 chains).
+     */
+    public static float cosine(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        FloatVector dot0 = FloatVector.zero(SPECIES), dot1 = FloatVector.zero(SPECIES);
+        FloatVector aa0 = FloatVector.zero(SPECIES), aa1 = FloatVector.zero(SPECIES);
+        FloatVector bb0 = FloatVector.zero(SPECIES), bb1 = FloatVector.zero(SPECIES);
+        int i = 0;
+        int upper2 = length - length % (2 * L);
+        for (; i < upper2; i += 2 * L) {
+            FloatVector va0 = FloatVector.fromArray(SPECIES, a, aOffset + i);
+            FloatVector vb0 = FloatVector.fromArray(SPECIES, b, bOffset + i);
+            FloatVector va1 = FloatVector.fromArray(SPECIES, a, aOffset + i + L);
+            FloatVector vb1 = FloatVector.fromArray(SPECIES, b, bOffset + i + L);
+            dot0 = va0.fma(vb0, dot0);
+            aa0 = va0.fma(va0, aa0);
+            bb0 = vb0.fma(vb0, bb0);
+            dot1 = va1.fma(vb1, dot1);
+            aa1 = va1.fma(va1, aa1);
+            bb1 = vb1.fma(vb1, bb1);
+        }
+        int upper = SPECIES.loopBound(length);
+        for (; i < upper; i += L) {
+            FloatVector va = FloatVector.fromArray(SPECIES, a, aOffset + i);
+            FloatVector vb = FloatVector.fromArray(SPECIES, b, bOffset + i);
+            dot0 = va.fma(vb, dot0);
+            aa0 = va.fma(va, aa0);
+            bb0 = vb.fma(vb, bb0);
+        }
+        float dot = dot0.add(dot1).reduceLanes(VectorOperators.ADD);
+        float na = aa0.add(aa1).reduceLanes(VectorOperators.ADD);
+        float nb = bb0.add(bb1).reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            float x = a[aOffset + i], y = b[bOffset + i];
+            dot += x * y;
+            na += x * x;
+            nb += y * y;
+        }
+        return dot / ((float) (Math.sqrt(na) * Math.sqrt(nb)));
+    }
+
+    /**
+     * The three sums behind cosine, written to {@code out[outOffset .. outOffset+3)} as
+     * {@code {a.b, |a|^2, |b|^2}}, so that partial results over chunks can be combined by the caller.
+     */
+    public static void cosineParts(float[] a, int aOffset, float[] b, int bOffset, int length,
+                                   float[] out, int outOffset) {
+        FloatVector dot0 = FloatVector.zero(SPECIES), dot1 = FloatVector.zero(SPECIES);
+        FloatVector aa0 = FloatVector.zero(SPECIES), aa1 = FloatVector.zero(SPECIES);
+        FloatVector bb0 = FloatVector.zero(SPECIES), bb1 = FloatVector.zero(SPECIES);
+        int i = 0;
+        int upper2 = length - length % (2 * L);
+        for (; i < upper2; i += 2 * L) {
+            FloatVector va0 = FloatVector.fromArray(SPECIES, a, aOffset + i);
+            FloatVector vb0 = FloatVector.fromArray(SPECIES, b, bOffset + i);
+            FloatVector va1 = FloatVector.fromArray(SPECIES, a, aOffset + i + L);
+            FloatVector vb1 = FloatVector.fromArray(SPECIES, b, bOffset + i + L);
+            dot0 = va0.fma(vb0, dot0);
+            aa0 = va0.fma(va0, aa0);
+            bb0 = vb0.fma(vb0, bb0);
+            dot1 = va1.fma(vb1, dot1);
+            aa1 = va1.fma(va1, aa1);
+            bb1 = vb1.fma(vb1, bb1);
+        }
+        int upper = SPECIES.loopBound(length);
+        for (; i < upper; i += L) {
+            FloatVector va = FloatVector.fromArray(SPECIES, a, aOffset + i);
+            FloatVector vb = FloatVector.fromArray(SPECIES, b, bOffset + i);
+            dot0 = va.fma(vb, dot0);
+            aa0 = va.fma(va, aa0);
+            bb0 = vb.fma(vb, bb0);
+        }
+        float dot = dot0.add(dot1).reduceLanes(VectorOperators.ADD);
+        float na = aa0.add(aa1).reduceLanes(VectorOperators.ADD);
+        float nb = bb0.add(bb1).reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            float x = a[aOffset + i], y = b[bOffset + i];
+            dot += x * y;
+            na += x * x;
+            nb += y * y;
+        }
+        out[outOffset] = dot;
+        out[outOffset + 1] = na;
+        out[outOffset + 2] = nb;
+    }
+
+    private static float dotTail(float[] a, int aOffset, float[] b, int bOffset, int from, int length) {
+        float s = 0f;
+        for (int i = from; i < length; i++) s += a[aOffset + i] * b[bOffset + i];
+        return s;
+    }
+}
@@ -0,0 +1,196 @@
+package com.javafest.aiatspeed.kernel;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+
+/**
+ * Dot, cosine and saxpy kernels over float data in a {@link MemorySegment} (memory-mapped files,
+ * off-heap buffers), loaded with {@link FloatVector#fromMemorySegment} so no copy to a heap array is
+ * needed. Offsets are in bytes and {@code long}, so a segment can be larger than 2 GB. Floats are
+ * little-endian, the order of the embedding file format and of the usual hosts; there it is a plain
+ * load.
+ */
+public class SegmentKernels {
+
+    static final VectorSpecies<Float> SPECIES = KernelProfile.FLOAT_SPECIES;
+    private static final int L = SPECIES.length();
+    private static final long VBYTES = SPECIES.vectorByteSize();
+    public static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+    public static final ValueLayout.OfFloat FLOAT = ValueLayout.JAVA_FLOAT_UNALIGNED.withOrder(ORDER);
+
+    /**
+     * Dot product of {@code length} floats at byte offset {@code aOffset} of {@code a} with
+     * {@code b[bOffset ..)}; 4 accumulators.
+     */
+    public static float dot(MemorySegment a, long aOffset, float[] b, int bOffset, int length) {
+        FloatVector acc0 = FloatVector.zero(SPECIES);
+        FloatVector acc1 = FloatVector.zero(SPECIES);
+        FloatVector acc2 = FloatVector.zero(SPECIES);
+        FloatVector acc3 = FloatVector.zero(SPECIES);
+        int i = 0;
+        long p = aOffset;
+        int upper4 = length - length % (4 * L);
+        for (; i < upper4; i += 4 * L, p += 4 * VBYTES) {
+            acc0 = FloatVector.fromMemorySegment(SPECIES, a, p, ORDER)
+                    .fma(FloatVector.fromArray(SPECIES, b, bOffset + i), acc0);
+            acc1 = FloatVector.fromMemorySegment(SPECIES, a, p + VBYTES, ORDER)
+                    .fma(FloatVector.fromArray(SPECIES, b, bOffset + i + L), acc1);
+            acc2 = FloatVector.fromMemorySegment(SPECIES, a, p + 2 * VBYTES, ORDER)
+                    .fma(FloatVector.fromArray(SPECIES, b, bOffset + i + 2 * L), acc2);
+            acc3 = FloatVector.fromMemorySegment(SPECIES, a, p + 3 * VBYTES, ORDER)
+                    .fma(FloatVector.fromArray(SPECIES, b, bOffset + i + 3 * L), acc3);
+        }
+        int upper = SPECIES.loopBound(length);
+        for (; i < upper; i += L, p += VBYTES) {
+            acc0 = FloatVector.fromMemorySegment(SPECIES, a, p, ORDER)
+                    .fma(FloatVector.fromArray(SPECIES, b, bOffset + i), acc0);
+        }
+        float s = acc0.add(acc1).add(acc2.add(acc3)).reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++, p += Float.BYTES) s += a.get(FLOAT, p) * b[bOffset + i];
+        return s;
+    }
+
+    /**
+     * Cosine of {@code length} floats at byte offset {@code aOffset} of {@code a} with
+     * {@code b[bOffset ..)}, in one pass.
+     */
+    public static float cosine(MemorySegment a, long aOffset, float[] b, int bOffset, int length) {
+        FloatVector dot0 = FloatVector.zero(SPECIES), dot1 = FloatVector.zero(SPECIES);
+        FloatVector aa0 = FloatVector.zero(SPECIES), aa1 = FloatVector.zero(SPECIES);
+        FloatVector bb0 = FloatVector.zero(SPECIES), bb1 = FloatVector.zero(SPECIES);
+        int i = 0;
+        long p = aOffset;
+        int upper2 = length - length % (2 * L);
+        for (; i < upper2; i += 2 * L, p += 2 * VBYTES) {
+            FloatVector va0 = FloatVector.fromMemorySegment(SPECIES, a, p, ORDER);
+            FloatVector vb0 = FloatVector.fromArray(SPECIES, b, bOffset + i);
+            FloatVector va1 = FloatVector.fromMemorySegment(SPECIES, a, p + VBYTES, ORDER);
+            FloatVector vb1 = FloatVector.fromArray(SPECIES, b, bOffset + i + L);
+            dot0 = va0.fma(vb0, dot0);
+            aa0 = va0.fma(va0, aa0);
+            bb0 = vb0.fma(vb0, bb0);
+            dot1 = va1.fma(vb1, dot1);
+            aa1 = va1.fma(va1, aa1);
+            bb1 = vb1.fma(vb1, bb1);
+        }
+        int upper = SPECIES.loopBound(length);
+        for (; i < upper; i += L, p += VBYTES) {
+            FloatVector va = FloatVector.fromMemorySegment(SPECIES, a, p, ORDER);
+            FloatVector vb = FloatVector.fromArray(SPECIES, b, bOffset + i);
+            dot0 = va.fma(vb, dot0);
+            aa0 = va.fma(va, aa0);
+            bb0 = vb.fma(vb, bb0);
+        }
+        float dot = dot0.add(dot1).reduceLanes(VectorOperators.ADD);
+        float na = aa0.add(aa1).reduceLanes(VectorOperators.ADD);
+        float nb = bb0.add(bb1).reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++, p += Float.BYTES) {
+            float x = a.get(FLOAT, p), y = b[bOffset + i];
+            dot += x * y;
+            na += x * x;
+            nb += y * y;
+        }
+        float denom = (float) (Math.sqrt(na) * Math.sqrt(nb));
+        return denom == 0f ? 0f : dot / denom;
+    }
+
+    /**
+     * Dot product of {@code length} floats at byte offsets {@code aOffset} and {@code bOffset}; 4 accumulators.
+     */
+    public static float dot(MemorySegment a, long aOffset, MemorySegment b, long bOffset, int length) {
+        FloatVector acc0 = FloatVector.zero(SPECIES);
+        FloatVector acc1 = FloatVector.zero(SPECIES);
+        FloatVector acc2 = FloatVector.zero(SPECIES);
+        FloatVector acc3 = FloatVector.zero(SPECIES);
+        int i = 0;
+        long p = aOffset, q = bOffset;
+        int upper4 = length - length % (4 * L);
+        for (; i < upper4; i += 4 * L, p += 4 * VBYTES, q += 4 * VBYTES) {
+            acc0 = FloatVector.fromMemorySegment(SPECIES, a, p, ORDER)
+                    .fma(FloatVector.fromMemorySegment(SPECIES, b, q, ORDER), acc0);
+            acc1 = FloatVector.fromMemorySegment(SPECIES, a, p + VBYTES, ORDER)
+                    .fma(FloatVector.fromMemorySegment(SPECIES, b, q + VBYTES, ORDER), acc1);
+            acc2 = FloatVector.fromMemorySegment(SPECIES, a, p + 2 * VBYTES, ORDER)
+                    .fma(FloatVector.fromMemorySegment(SPECIES, b, q + 2 * VBYTES, ORDER), acc2);
+            acc3 = FloatVector.fromMemorySegment(SPECIES, a, p + 3 * VBYTES, ORDER)
+                    .fma(FloatVector.fromMemorySegment(SPECIES, b, q + 3 * VBYTES, ORDER), acc3);
+        }
+        int upper = SPECIES.loopBound(length);
+        for (; i < upper; i += L, p += VBYTES, q += VBYTES) {
+            acc0 = FloatVector.fromMemorySegment(SPECIES, a, p, ORDER)
+                    .fma(FloatVector.fromMemorySegment(SPECIES, b, q, ORDER), acc0);
+        }
+        float s = acc0.add(acc1).add(acc2.add(acc3)).reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++, p += Float.BYTES, q += Float.BYTES) s += a.get(FLOAT, p) * b.get(FLOAT, q);
+        return s;
+    }
+
+    /**
+     * The three sums behind cosine for {@code length} floats at byte offsets {@code aOffset} and
+     * {@code bOffset}, written to {@code out[outOffset .. outOffset+3)} as {@code {a.b, |a|^2, |b|^2}}.
+     */
+    public static void cosineParts(MemorySegment a, long aOffset, MemorySegment b, long bOffset, int length,
+                                   float[] out, int outOffset) {
+        FloatVector dot0 = FloatVector.zero(SPECIES), dot1 = FloatVector.zero(SPECIES);
+        FloatVector aa0 = FloatVector.zero(SPECIES), aa1 = FloatVector.zero(SPECIES);
+        FloatVector bb0 = FloatVector.zero(SPECIES), bb1 = FloatVector.zero(SPECIES);
+        int i = 0;
+        long p = aOffset, q = bOffset;
+        int upper2 = length - length % (2 * L);
+        for (; i < upper2; i += 2 * L, p += 2 * VBYTES, q += 2 * VBYTES) {
+            FloatVector va0 = FloatVector.fromMemorySegment(SPECIES, a, p, ORDER);
+            FloatVector vb0 = FloatVector.fromMemorySegment(SPECIES, b, q, ORDER);
+            FloatVector va1 = FloatVector.fromMemorySegment(SPECIES, a, p + VBYTES, ORDER);
+            FloatVector vb1 = FloatVector.fromMemorySegment(SPECIES, b, q + VBYTES, ORDER);
+            dot0 = va0.fma(vb0, dot0);
+            aa0 = va0.fma(va0, aa0);
+            bb0 = vb0.fma(vb0, bb0);
+            dot1 = va1.fma(vb1, dot1);
+            aa1 = va1.fma(va1, aa1);
+            bb1 = vb1.fma(vb1, bb1);
+        }
+        int upper = SPECIES.loopBound(length);
+        for (; i < upper; i += L, p += VBYTES, q += VBYTES) {
+            FloatVector va = FloatVector.fromMemorySegment(SPECIES, a, p, ORDER);
+            FloatVector vb = FloatVector.fromMemorySegment(SPECIES, b, q, ORDER);
+            dot0 = va.fma(vb, dot0);
+            aa0 = va.fma(va, aa0);
+            bb0 = vb.fma(vb, bb0);
+        }
+        float dot = dot0.add(dot1).reduceLanes(VectorOperators.ADD);
+        float na = aa0.add(aa1).reduceLanes(VectorOperators.ADD);
+        float nb = bb0.add(bb1).reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++, p += Float.BYTES, q += Float.BYTES) {
+            float x = a.get(FLOAT, p), y = b.get(FLOAT, q);
+            dot += x * y;
+            na += x * x;
+            nb += y * y;
+        }
+        out[outOffset] = dot;
+        out[outOffset + 1] = na;
+        out[outOffset + 2] = nb;
+    }
+
+    /**
+     * {@code y += alpha * x} over {@code length} floats at byte offsets {@code xOffset} and {@code yOffset}.
+     */
+    public static void saxpy(float alpha, MemorySegment x, long xOffset, MemorySegment y, long yOffset, int length) {
+        FloatVector va = FloatVector.broadcast(SPECIES, alpha);
+        int i = 0;
+        long p = xOffset, q = yOffset;
+        int upper = SPECIES.loopBound(length);
+        for (; i < upper; i += L, p += VBYTES, q += VBYTES) {
+            FloatVector.fromMemorySegment(SPECIES, x, p, ORDER)
+                    .fma(va, FloatVector.fromMemorySegment(SPECIES, y, q, ORDER))
+                    .intoMemorySegment(y, q, ORDER);
+        }
+        for (; i < length; i++, p += Float.BYTES, q += Float.BYTES) {
+            y.set(FLOAT, q, alpha * x.get(FLOAT, p) + y.get(FLOAT, q));
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.javafest.aiatspeed.quant;
+
+import com.javafest.aiatspeed.kernel.KernelProfile;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Hamming distance over bit-packed fingerprints.
+ * <p>
+ * Each {@code long} holds 64 sign bits, so a 512-bit fingerprint is 8 longs: a single
+ * 512-bit register, XORed and popcounted ({@link VectorOperators#BIT_COUNT}) in a couple of instructions.
+ */
+public class HammingKernels {
+
+    static final VectorSpecies<Long> SPECIES = VectorSpecies.of(long.class, KernelProfile.FLOAT_SPECIES.vectorShape());
+
+    /**
+     * Number of differing bits between {@code a[aOffset .. aOffset+words)} and {@code b[bOffset .. bOffset+words)}.
+     */
+    public static int distance(long[] a, int aOffset, long[] b, int bOffset, int words) {
+        int i = 0;
+        LongVector acc = LongVector.zero(SPECIES);
+        int upper = SPECIES.loopBound(words);
+        for (; i < upper; i += SPECIES.length()) {
+            LongVector va = LongVector.fromArray(SPECIES, a, aOffset + i);
+            LongVector vb = LongVector.fromArray(SPECIES, b, bOffset + i);
+            acc = acc.add(va.lanewise(VectorOperators.XOR, vb).lanewise(VectorOperators.BIT_COUNT));
+        }
+        long d = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < words; i++) d += Long.bitCount(a[aOffset + i] ^ b[bOffset + i]);
+        return (int) d;
+    }
+}
@@ -0,0 +1,62 @@
+package com.javafest.aiatspeed.quant;
+
+import com.javafest.aiatspeed.kernel.KernelProfile;
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD kernels over int8 codes.
+ * <p>
+ * A byte register holds 4x the lanes of a float register, but byte products overflow, so the
+ * dot product widens: bytes are loaded at half the profile's shape, widened to a full
+ * {@link ShortVector} (B2S), multiplied there (|q| &lt;= 127 keeps every product within 16 bits),
+ * and the products are widened again into two halves of an {@link IntVector} accumulator (S2I).
+ */
+public class Int8Kernels {
+
+    // The profile's float shape, but at least 128 bits so the half-width bytes are a legal 64-bit shape
+    private static final VectorShape SHAPE =
+            VectorShape.forBitSize(Math.max(128, KernelProfile.FLOAT_SPECIES.vectorBitSize()));
+    static final VectorSpecies<Short> SHORT_SPECIES = VectorSpecies.of(short.class, SHAPE);
+    static final VectorSpecies<Byte> BYTE_SPECIES =
+            VectorSpecies.of(byte.class, VectorShape.forBitSize(SHORT_SPECIES.vectorBitSize() / 2));
+    static final VectorSpecies<Integer> INT_SPECIES = VectorSpecies.of(int.class, SHAPE);
+
+    /** Largest code magnitude; symmetric so products never reach -128 * -128. */
+    public static final int MAX_CODE = 127;
+
+    /**
+     * Integer dot product of {@code a[aOffset .. aOffset+length)} and {@code b[bOffset .. bOffset+length)}.
+     * Exact as long as {@code length * 127 * 127} fits in an int (length up to ~133k).
+     */
+    public static int dot(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        int i = 0;
+        IntVector acc = IntVector.zero(INT_SPECIES);
+        int upper = BYTE_SPECIES.loopBound(length);
+        for (; i < upper; i += BYTE_SPECIES.length()) {
+            ShortVector va = (ShortVector) ByteVector.fromArray(BYTE_SPECIES, a, aOffset + i)
+                    .convertShape(VectorOperators.B2S, SHORT_SPECIES, 0);
+            ShortVector vb = (ShortVector) ByteVector.fromArray(BYTE_SPECIES, b, bOffset + i)
+                    .convertShape(VectorOperators.B2S, SHORT_SPECIES, 0);
+            ShortVector prod = va.mul(vb);
+            acc = acc.add((IntVector) prod.convertShape(VectorOperators.S2I, INT_SPECIES, 0))
+                    .add((IntVector) prod.convertShape(VectorOperators.S2I, INT_SPECIES, 1));
+        }
+        int dot = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) dot += a[aOffset + i] * b[bOffset + i];
+        return dot;
+    }
+
+    /**
+     * Sum of the codes in {@code v[offset .. offset+length)}; needed to undo the per-vector offset.
+     */
+    public static int sum(byte[] v, int offset, int length) {
+        int s = 0;
+        for (int i = 0; i < length; i++) s += v[offset + i];
+        return s;
+    }
+}
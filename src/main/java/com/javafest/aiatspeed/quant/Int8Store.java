@@ -0,0 +1,130 @@
+package com.javafest.aiatspeed.quant;
+
+import com.javafest.aiatspeed.benchmark.CosineSimilarityVector;
+
+/**
+ * Row-major corpus of int8 scalar-quantized embeddings.
+ * <p>
+ * Each row is calibrated on its own range: {@code x ~= offset + scale * q} with
+ * {@code offset = (max + min) / 2}, {@code scale = (max - min) / 254} and {@code q} in [-127, 127].
+ * Expanding the product of two such rows gives
+ * <pre>
+ *   a.b ~= d*oa*ob + oa*sb*sum(qb) + ob*sa*sum(qa) + sa*sb*(qa.qb)
+ * </pre>
+ * so only the integer {@code qa.qb} term depends on both vectors; the code sums are stored per row.
+ * A row costs {@code dim} bytes plus 16 bytes of metadata, a quarter of its float32 size.
+ */
+public class Int8Store {
+
+    private final int dim;
+    private final int count;
+    private final byte[] codes;
+    private final float[] scales;
+    private final float[] offsets;
+    private final int[] codeSums;
+    private final float[] norms;
+
+    private Int8Store(int dim, int count) {
+        this.dim = dim;
+        this.count = count;
+        this.codes = new byte[count * dim];
+        this.scales = new float[count];
+        this.offsets = new float[count];
+        this.codeSums = new int[count];
+        this.norms = new float[count];
+    }
+
+    /**
+     * Quantizes a flat row-major float corpus. Norms of the original rows are kept so that
+     * approximate cosine scores stay on the same scale as the float ones.
+     */
+    public static Int8Store quantize(float[] corpus, int dim) {
+        if (dim <= 0 || corpus.length % dim != 0)
+            throw new IllegalArgumentException("corpus length " + corpus.length + " is not a multiple of dim " + dim);
+        Int8Store store = new Int8Store(dim, corpus.length / dim);
+        for (int r = 0; r < store.count; r++) {
+            int off = r * dim;
+            float[] params = encode(corpus, off, dim, store.codes, off);
+            store.scales[r] = params[0];
+            store.offsets[r] = params[1];
+            store.codeSums[r] = Int8Kernels.sum(store.codes, off, dim);
+            store.norms[r] = CosineSimilarityVector.norm(corpus, off, dim);
+        }
+        return store;
+    }
+
+    /**
+     * Quantizes a query with the same per-vector calibration as the stored rows.
+     */
+    public Query encodeQuery(float[] query) {
+        if (query.length != dim)
+            throw new IllegalArgumentException("query has " + query.length + " dims, store has " + dim);
+        byte[] q = new byte[dim];
+        float[] params = encode(query, 0, dim, q, 0);
+        return new Query(q, params[0], params[1], Int8Kernels.sum(q, 0, dim),
+                CosineSimilarityVector.norm(query, 0, dim));
+    }
+
+    /**
+     * Approximate dot product between a quantized query and stored row {@code row}.
+     */
+    public float dot(Query q, int row) {
+        int qDot = Int8Kernels.dot(q.codes(), 0, codes, row * dim, dim);
+        float sr = scales[row], or = offsets[row];
+        return dim * q.offset() * or
+                + q.offset() * sr * codeSums[row]
+                + or * q.scale() * q.codeSum()
+                + q.scale() * sr * qDot;
+    }
+
+    /**
+     * Approximate cosine similarity between a quantized query and stored row {@code row}.
+     */
+    public float cosine(Query q, int row) {
+        float denom = q.norm() * norms[row];
+        return denom == 0f ? 0f : dot(q, row) / denom;
+    }
+
+    /** Euclidean norm of the original float row. */
+    public float norm(int row) {
+        return norms[row];
+    }
+
+    public int dim() {
+        return dim;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    /** Bytes held by codes and per-row metadata. */
+    public long memoryBytes() {
+        return (long) codes.length + 16L * count;
+    }
+
+    // Writes codes for src[off .. off+len) into dst and returns {scale, offset}
+    private static float[] encode(float[] src, int off, int len, byte[] dst, int dstOff) {
+        float min = Float.POSITIVE_INFINITY, max = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < len; i++) {
+            float x = src[off + i];
+            if (x < min) min = x;
+            if (x > max) max = x;
+        }
+        float offset = (max + min) * 0.5f;
+        float scale = (max - min) / (2 * Int8Kernels.MAX_CODE);
+        if (scale == 0f) scale = 1f; // constant vector: every code is 0, offset carries the value
+        float inv = 1f / scale;
+        for (int i = 0; i < len; i++) {
+            int q = Math.round((src[off + i] - offset) * inv);
+            dst[dstOff + i] = (byte) Math.max(-Int8Kernels.MAX_CODE, Math.min(Int8Kernels.MAX_CODE, q));
+        }
+        return new float[]{scale, offset};
+    }
+
+    /**
+     * A query quantized against this store's scheme.
+     */
+    public record Query(byte[] codes, float scale, float offset, int codeSum, float norm) {
+    }
+}
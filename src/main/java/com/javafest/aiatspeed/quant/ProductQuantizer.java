@@ -0,0 +1,143 @@
+package com.javafest.aiatspeed.quant;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Product quantization: a {@code dim}-dimensional vector is split into {@code m} sub-vectors of
+ * {@code dim / m} dimensions, and each sub-vector is replaced by the index of its nearest centroid
+ * in that sub-space's 256-entry codebook. A row becomes {@code m} bytes.
+ * <p>
+ * Distances are asymmetric: the query stays in float, and for each sub-space the dot products
+ * between the query slice and all 256 centroids are precomputed once into a lookup table.
+ * Scoring a row is then {@code m} table lookups and adds, with no multiplications at all.
+ */
+public class ProductQuantizer {
+
+    public static final int CENTROIDS = 256;
+    /** Training sample per centroid; codebooks stop improving well before every row is used. */
+    private static final int TRAIN_ROWS_PER_CENTROID = 64;
+
+    private final int dim;
+    private final int m;
+    private final int subDim;
+    private final float[] codebooks; // m x CENTROIDS x subDim
+
+    private ProductQuantizer(int dim, int m, float[] codebooks) {
+        this.dim = dim;
+        this.m = m;
+        this.subDim = dim / m;
+        this.codebooks = codebooks;
+    }
+
+    /**
+     * Trains one k-means codebook per sub-space, sub-spaces in parallel.
+     *
+     * @param corpus     flat row-major training rows
+     * @param m          number of sub-spaces; must divide {@code dim}
+     * @param iterations k-means iterations per sub-space
+     */
+    public static ProductQuantizer train(float[] corpus, int dim, int m, int iterations, long seed) {
+        if (dim <= 0 || corpus.length % dim != 0)
+            throw new IllegalArgumentException("corpus length " + corpus.length + " is not a multiple of dim " + dim);
+        if (m <= 0 || dim % m != 0) throw new IllegalArgumentException("m must divide dim: m=" + m + ", dim=" + dim);
+        int count = corpus.length / dim;
+        if (count < CENTROIDS) throw new IllegalArgumentException("need at least " + CENTROIDS + " training rows");
+        int subDim = dim / m;
+        float[] sample = sample(corpus, dim, count, CENTROIDS * TRAIN_ROWS_PER_CENTROID, new Random(seed));
+        int sampleRows = sample.length / dim;
+        float[] codebooks = new float[m * CENTROIDS * subDim];
+        IntStream.range(0, m).parallel().forEach(s ->
+                trainSubspace(sample, dim, sampleRows, s * subDim, subDim, iterations, new Random(seed + s),
+                        codebooks, s * CENTROIDS * subDim));
+        return new ProductQuantizer(dim, m, codebooks);
+    }
+
+    private static float[] sample(float[] corpus, int dim, int count, int rows, Random r) {
+        if (count <= rows) return corpus;
+        float[] out = new float[rows * dim];
+        for (int i = 0; i < rows; i++) System.arraycopy(corpus, r.nextInt(count) * dim, out, i * dim, dim);
+        return out;
+    }
+
+    // Plain Euclidean k-means on the columns [off, off + subDim) of the training rows
+    private static void trainSubspace(float[] corpus, int dim, int count, int off, int subDim, int iterations,
+                                      Random r, float[] out, int outOff) {
+        for (int c = 0; c < CENTROIDS; c++) {
+            System.arraycopy(corpus, r.nextInt(count) * dim + off, out, outOff + c * subDim, subDim);
+        }
+        float[] sums = new float[CENTROIDS * subDim];
+        int[] sizes = new int[CENTROIDS];
+        for (int it = 0; it < iterations; it++) {
+            Arrays.fill(sums, 0f);
+            Arrays.fill(sizes, 0);
+            for (int row = 0; row < count; row++) {
+                int base = row * dim + off;
+                int c = nearest(out, outOff, subDim, corpus, base);
+                sizes[c]++;
+                for (int j = 0; j < subDim; j++) sums[c * subDim + j] += corpus[base + j];
+            }
+            for (int c = 0; c < CENTROIDS; c++) {
+                if (sizes[c] == 0) {
+                    System.arraycopy(corpus, r.nextInt(count) * dim + off, out, outOff + c * subDim, subDim);
+                } else {
+                    for (int j = 0; j < subDim; j++) out[outOff + c * subDim + j] = sums[c * subDim + j] / sizes[c];
+                }
+            }
+        }
+    }
+
+    private static int nearest(float[] book, int bookOff, int subDim, float[] v, int vOff) {
+        int best = 0;
+        float bestDist = Float.POSITIVE_INFINITY;
+        for (int c = 0; c < CENTROIDS; c++) {
+            float d = 0f;
+            int cb = bookOff + c * subDim;
+            for (int j = 0; j < subDim; j++) {
+                float diff = v[vOff + j] - book[cb + j];
+                d += diff * diff;
+            }
+            if (d < bestDist) { bestDist = d; best = c; }
+        }
+        return best;
+    }
+
+    /**
+     * Writes the {@code m} codes of {@code v[offset .. offset+dim)} to {@code codes[codeOffset + s * stride]}.
+     * A stride other than 1 lets callers write straight into a transposed (blocked) layout.
+     */
+    public void encode(float[] v, int offset, byte[] codes, int codeOffset, int stride) {
+        for (int s = 0; s < m; s++) {
+            int c = nearest(codebooks, s * CENTROIDS * subDim, subDim, v, offset + s * subDim);
+            codes[codeOffset + s * stride] = (byte) c;
+        }
+    }
+
+    /**
+     * Per-query table of inner products: {@code lut[s * 256 + c] = query_s . centroid_{s,c}}.
+     * The approximate dot product of the query with a row is the sum of one entry per sub-space.
+     */
+    public float[] lookupTable(float[] query) {
+        if (query.length != dim) throw new IllegalArgumentException("query has " + query.length + " dims, expected " + dim);
+        float[] lut = new float[m * CENTROIDS];
+        for (int s = 0; s < m; s++) {
+            for (int c = 0; c < CENTROIDS; c++) {
+                int cb = (s * CENTROIDS + c) * subDim;
+                float d = 0f;
+                for (int j = 0; j < subDim; j++) d += query[s * subDim + j] * codebooks[cb + j];
+                lut[s * CENTROIDS + c] = d;
+            }
+        }
+        return lut;
+    }
+
+    public int dim() {
+        return dim;
+    }
+
+    /** Sub-spaces, i.e. bytes per encoded row. */
+    public int m() {
+        return m;
+    }
+}
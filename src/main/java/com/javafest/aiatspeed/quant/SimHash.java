@@ -0,0 +1,76 @@
+package com.javafest.aiatspeed.quant;
+
+import com.javafest.aiatspeed.benchmark.CosineSimilarityVector;
+
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Random-hyperplane (SimHash) binary fingerprints.
+ * <p>
+ * Bit {@code j} of a fingerprint is the sign of the projection onto Gaussian hyperplane {@code j}.
+ * Two vectors at angle {@code theta} disagree on each bit with probability {@code theta / pi},
+ * so Hamming distance between fingerprints estimates angular distance. With {@code bits == dim}
+ * a float32 embedding shrinks 32x, cheap enough to scan as a first-pass filter before exact re-ranking.
+ */
+public class SimHash {
+
+    private final int dim;
+    private final int bits;
+    private final int words;
+    private final float[] planes; // bits x dim, row-major
+
+    public SimHash(int dim, int bits, long seed) {
+        if (dim <= 0 || bits <= 0) throw new IllegalArgumentException("dim and bits must be positive");
+        this.dim = dim;
+        this.bits = bits;
+        this.words = (bits + 63) >>> 6;
+        this.planes = new float[bits * dim];
+        Random r = new Random(seed);
+        for (int i = 0; i < planes.length; i++) planes[i] = (float) r.nextGaussian();
+    }
+
+    public int dim() {
+        return dim;
+    }
+
+    public int bits() {
+        return bits;
+    }
+
+    /** Longs per fingerprint. */
+    public int words() {
+        return words;
+    }
+
+    /**
+     * Writes the fingerprint of {@code src[offset .. offset+dim)} into {@code dst[dstOffset .. dstOffset+words)}.
+     */
+    public void fingerprint(float[] src, int offset, long[] dst, int dstOffset) {
+        for (int w = 0; w < words; w++) dst[dstOffset + w] = 0L;
+        for (int j = 0; j < bits; j++) {
+            if (CosineSimilarityVector.dot(planes, j * dim, src, offset, dim) >= 0f) {
+                dst[dstOffset + (j >>> 6)] |= 1L << (j & 63);
+            }
+        }
+    }
+
+    public long[] fingerprint(float[] v) {
+        if (v.length != dim) throw new IllegalArgumentException("vector has " + v.length + " dims, expected " + dim);
+        long[] fp = new long[words];
+        fingerprint(v, 0, fp, 0);
+        return fp;
+    }
+
+    /**
+     * Fingerprints every row of a flat row-major corpus, rows in parallel.
+     *
+     * @return {@code count * words()} longs, row-major
+     */
+    public long[] fingerprintAll(float[] corpus) {
+        int count = corpus.length / dim;
+        long[] out = new long[count * words];
+        IntStream.range(0, count).parallel().forEach(r -> fingerprint(corpus, r * dim, out, r * words));
+        return out;
+    }
+}
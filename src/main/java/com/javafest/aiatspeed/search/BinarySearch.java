@@ -0,0 +1,94 @@
+package com.javafest.aiatspeed.search;
+
+import com.javafest.aiatspeed.quant.HammingKernels;
+import com.javafest.aiatspeed.quant.SimHash;
+
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Two-phase top-k cosine search over {@link SimHash} fingerprints: a Hamming-distance scan picks
+ * {@code candidates} rows, which are re-ranked by exact cosine through {@link TopKSearch#rescore}.
+ */
+public class BinarySearch {
+
+    private static final int ROWS_PER_TASK = 8192;
+
+    private final SimHash hash;
+    private final long[] fingerprints;
+    private final int count;
+    private final TopKSearch exact;
+
+    public BinarySearch(float[] corpus, int dim, int bits, long seed) {
+        this.hash = new SimHash(dim, bits, seed);
+        this.fingerprints = hash.fingerprintAll(corpus);
+        this.count = corpus.length / dim;
+        this.exact = new TopKSearch(corpus, dim);
+    }
+
+    /** Bytes held by the fingerprints. */
+    public long memoryBytes() {
+        return 8L * fingerprints.length;
+    }
+
+    /**
+     * @param candidates rows kept by the Hamming pass for re-ranking; larger values raise recall
+     * @return up to k hits with exact cosine scores, best first
+     */
+    public Hit[] search(float[] query, int k, int candidates) {
+        long[] fp = hash.fingerprint(query);
+        int words = hash.words();
+        int tasks = (count + ROWS_PER_TASK - 1) / ROWS_PER_TASK;
+        TopKHeap coarse = IntStream.range(0, tasks).parallel()
+                .mapToObj(t -> {
+                    TopKHeap heap = new TopKHeap(candidates);
+                    for (int r = t * ROWS_PER_TASK, end = Math.min(count, r + ROWS_PER_TASK); r < end; r++) {
+                        heap.offer(r, -HammingKernels.distance(fp, 0, fingerprints, r * words, words));
+                    }
+                    return heap;
+                })
+                .reduce(TopKHeap::merge)
+                .orElseGet(() -> new TopKHeap(candidates));
+        return exact.rescore(query, coarse.toHits(), k);
+    }
+
+    public static void main(String[] args) {
+        int dim = 512, n = 200_000, k = 10, candidates = 200, queries = 20;
+        Random r = new Random(1234);
+        float[] corpus = new float[n * dim];
+        for (int i = 0; i < corpus.length; i++) corpus[i] = r.nextFloat() - 0.5f;
+        // Queries are noisy copies of corpus rows, so each one has a clear nearest neighbourhood
+        float[][] qs = new float[queries][dim];
+        for (float[] q : qs) {
+            int base = r.nextInt(n) * dim;
+            for (int j = 0; j < dim; j++) q[j] = corpus[base + j] + 0.5f * (r.nextFloat() - 0.5f);
+        }
+
+        TopKSearch exact = new TopKSearch(corpus, dim);
+        BinarySearch binary = new BinarySearch(corpus, dim, dim, 42);
+        System.out.printf("float32 corpus: %d MB, fingerprints: %d MB%n",
+                4L * corpus.length >> 20, binary.memoryBytes() >> 20);
+
+        // Warm-up
+        for (int i = 0; i < 3; i++) {
+            exact.searchParallel(qs[i], k);
+            binary.search(qs[i], k, candidates);
+        }
+
+        Hit[][] truth = new Hit[queries][];
+        long t0 = System.nanoTime();
+        for (int i = 0; i < queries; i++) truth[i] = exact.searchParallel(qs[i], k);
+        long floatNs = System.nanoTime() - t0;
+
+        Hit[][] approx = new Hit[queries][];
+        t0 = System.nanoTime();
+        for (int i = 0; i < queries; i++) approx[i] = binary.search(qs[i], k, candidates);
+        long binNs = System.nanoTime() - t0;
+
+        System.out.printf("float32 scan          : %8.1f queries/s%n", queries * 1e9 / floatNs);
+        int top1 = 0;
+        for (int i = 0; i < queries; i++) if (approx[i][0].id() == truth[i][0].id()) top1++;
+        System.out.printf("Hamming scan + rerank : %8.1f queries/s, top-1 agreement = %d/%d, recall@%d = %.3f%n",
+                queries * 1e9 / binNs, top1, queries, k, EvalData.recall(truth, approx));
+    }
+}
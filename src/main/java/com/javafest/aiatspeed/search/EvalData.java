@@ -0,0 +1,66 @@
+package com.javafest.aiatspeed.search;
+
+import java.util.Random;
+
+/**
+ * Synthetic corpora and recall measurement shared by the index demos and benchmarks.
+ * <p>
+ * Uniform random vectors are all nearly orthogonal, so approximate indexes look uselessly bad on
+ * them. {@link #clustered} scatters rows around random centres instead, which gives real
+ * neighbourhoods the way trained embeddings do.
+ */
+public class EvalData {
+
+    /**
+     * {@code n} rows of dimension {@code dim}, flat row-major, each a random centre plus Gaussian noise.
+     */
+    public static float[] clustered(int n, int dim, int clusters, long seed) {
+        Random r = new Random(seed);
+        float[] centres = new float[clusters * dim];
+        for (int i = 0; i < centres.length; i++) centres[i] = (float) r.nextGaussian();
+        float[] corpus = new float[n * dim];
+        for (int row = 0; row < n; row++) {
+            int c = r.nextInt(clusters) * dim;
+            for (int j = 0; j < dim; j++) corpus[row * dim + j] = centres[c + j] + 0.3f * (float) r.nextGaussian();
+        }
+        return corpus;
+    }
+
+    /**
+     * Queries made by perturbing random corpus rows with Gaussian noise of the given scale.
+     */
+    public static float[][] noisyQueries(float[] corpus, int dim, int queries, float noise, long seed) {
+        Random r = new Random(seed);
+        int n = corpus.length / dim;
+        float[][] qs = new float[queries][dim];
+        for (float[] q : qs) {
+            int base = r.nextInt(n) * dim;
+            for (int j = 0; j < dim; j++) q[j] = corpus[base + j] + noise * (float) r.nextGaussian();
+        }
+        return qs;
+    }
+
+    /**
+     * Exact top-k for every query, the ground truth for {@link #recall}.
+     */
+    public static Hit[][] groundTruth(float[] corpus, int dim, float[][] queries, int k) {
+        TopKSearch brute = new TopKSearch(corpus, dim);
+        Hit[][] truth = new Hit[queries.length][];
+        for (int i = 0; i < queries.length; i++) truth[i] = brute.searchParallel(queries[i], k);
+        return truth;
+    }
+
+    /**
+     * Fraction of true neighbours that the approximate results found (recall@k).
+     */
+    public static double recall(Hit[][] truth, Hit[][] approx) {
+        int found = 0, total = 0;
+        for (int i = 0; i < truth.length; i++) {
+            for (Hit t : truth[i]) {
+                total++;
+                for (Hit a : approx[i]) if (a.id() == t.id()) { found++; break; }
+            }
+        }
+        return total == 0 ? 1.0 : (double) found / total;
+    }
+}
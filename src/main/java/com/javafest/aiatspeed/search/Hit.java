@@ -0,0 +1,7 @@
+package com.javafest.aiatspeed.search;
+
+/**
+ * One search result: the row id in the corpus and its similarity score (higher is better).
+ */
+public record Hit(int id, float score) {
+}
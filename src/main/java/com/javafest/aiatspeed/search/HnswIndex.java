@@ -0,0 +1,373 @@
+package com.javafest.aiatspeed.search;
+
+import com.javafest.aiatspeed.benchmark.CosineSimilarityVector;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Hierarchical Navigable Small World (HNSW) graph index for low-latency approximate cosine search.
+ * <p>
+ * Rows are unit-normalized once at ingest, so every similarity in the graph is a single
+ * {@link CosineSimilarityVector#dot} call. Each node gets a random top level; upper levels are sparse
+ * express lanes and level 0 links every node to up to {@code 2 * M} neighbours. A query descends
+ * greedily through the upper levels and finishes with a beam search of width {@code ef} at level 0,
+ * touching a few thousand rows instead of the whole corpus.
+ * <p>
+ * Adjacency is primitive: level 0 is one {@code int[]} with {@code 2 * M + 1} slots per node
+ * (slot 0 holds the degree), and each node with upper levels owns an {@code int[]} of
+ * {@code M + 1} slots per level. Nodes are inserted in parallel on the fork-join pool; a neighbour
+ * list is only read or written while holding its node's lock stripe, and the entry point is
+ * swapped under the index monitor. Queries run after the build and take no locks.
+ */
+public class HnswIndex {
+
+    private static final int LOCK_STRIPES = 1 << 12;
+
+    private final int dim;
+    private final int count;
+    private final int m;
+    private final int m0;
+    private final int efConstruction;
+    private final float[] data;          // unit rows, count x dim
+    private final int[] levels;
+    private final int[] links0;          // count x (m0 + 1)
+    private final int[][] upperLinks;    // per node: levels[node] x (m + 1), null for level-0 nodes
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private final ThreadLocal<Visited> visited;
+    private volatile int entryPoint;
+    private volatile int maxLevel;
+
+    /**
+     * @param m              neighbours per node on upper levels (level 0 keeps {@code 2 * m})
+     * @param efConstruction beam width while inserting; larger builds a better graph, more slowly
+     */
+    public HnswIndex(float[] corpus, int dim, int m, int efConstruction, long seed) {
+        if (dim <= 0 || corpus.length % dim != 0)
+            throw new IllegalArgumentException("corpus length " + corpus.length + " is not a multiple of dim " + dim);
+        if (m < 2) throw new IllegalArgumentException("m must be at least 2: " + m);
+        this.dim = dim;
+        this.count = corpus.length / dim;
+        this.m = m;
+        this.m0 = 2 * m;
+        this.efConstruction = Math.max(efConstruction, m0);
+        this.data = new float[corpus.length];
+        this.levels = new int[count];
+        this.links0 = new int[count * (m0 + 1)];
+        this.upperLinks = new int[count][];
+        for (int i = 0; i < LOCK_STRIPES; i++) locks[i] = new Object();
+        this.visited = ThreadLocal.withInitial(() -> new Visited(count));
+
+        IntStream.range(0, count).parallel().forEach(r -> {
+            float n = CosineSimilarityVector.norm(corpus, r * dim, dim);
+            float inv = n == 0f ? 0f : 1f / n;
+            for (int j = 0; j < dim; j++) data[r * dim + j] = corpus[r * dim + j] * inv;
+        });
+        Random r = new Random(seed);
+        double levelMult = 1.0 / Math.log(m);
+        for (int i = 0; i < count; i++) {
+            levels[i] = (int) (-Math.log(1.0 - r.nextDouble()) * levelMult);
+            if (levels[i] > 0) upperLinks[i] = new int[levels[i] * (m + 1)];
+        }
+
+        if (count == 0) return;
+        entryPoint = 0;
+        maxLevel = levels[0];
+        IntStream.range(1, count).parallel().forEach(this::insert);
+    }
+
+    private float similarity(int a, int b) {
+        return CosineSimilarityVector.dot(data, a * dim, data, b * dim, dim);
+    }
+
+    private float similarity(float[] query, int node) {
+        return CosineSimilarityVector.dot(query, 0, data, node * dim, dim);
+    }
+
+    private void insert(int node) {
+        int level = levels[node];
+        int ep;
+        int top;
+        synchronized (this) {
+            ep = entryPoint;
+            top = maxLevel;
+        }
+        float[] q = Arrays.copyOfRange(data, node * dim, (node + 1) * dim);
+        for (int lc = top; lc > level; lc--) ep = greedy(q, ep, lc, true);
+
+        for (int lc = Math.min(level, top); lc >= 0; lc--) {
+            Hit[] found = searchLayer(q, ep, efConstruction, lc, true).toHits();
+            int maxDegree = lc == 0 ? m0 : m;
+            int[] chosen = selectNeighbours(found, maxDegree);
+            synchronized (lock(node)) {
+                setLinks(node, lc, chosen, chosen.length);
+            }
+            for (int n : chosen) link(n, node, lc, maxDegree);
+            ep = found[0].id();
+        }
+
+        if (level > maxLevel) {
+            synchronized (this) {
+                if (level > maxLevel) {
+                    entryPoint = node;
+                    maxLevel = level;
+                }
+            }
+        }
+    }
+
+    // Adds newNode to n's list at level lc, pruning with the heuristic when the list is full
+    private void link(int n, int newNode, int lc, int maxDegree) {
+        synchronized (lock(n)) {
+            int[] arr = lc == 0 ? links0 : upperLinks[n];
+            int base = base(n, lc);
+            int degree = arr[base];
+            for (int i = 1; i <= degree; i++) if (arr[base + i] == newNode) return;
+            if (degree < maxDegree) {
+                arr[base + 1 + degree] = newNode;
+                arr[base] = degree + 1;
+                return;
+            }
+            Hit[] pool = new Hit[degree + 1];
+            for (int i = 0; i < degree; i++) pool[i] = new Hit(arr[base + 1 + i], similarity(n, arr[base + 1 + i]));
+            pool[degree] = new Hit(newNode, similarity(n, newNode));
+            Arrays.sort(pool, (x, y) -> Float.compare(y.score(), x.score()));
+            int[] kept = selectNeighbours(pool, maxDegree);
+            setLinks(n, lc, kept, kept.length);
+        }
+    }
+
+    /**
+     * Neighbour-selection heuristic: walking candidates from most to least similar, keep one only if
+     * it is closer to the base vector than to every neighbour already kept. This spreads links in
+     * different directions instead of packing them into one cluster, which keeps the graph navigable.
+     *
+     * @param sorted candidates, most similar first, scored against the base vector
+     */
+    private int[] selectNeighbours(Hit[] sorted, int maxDegree) {
+        int[] kept = new int[Math.min(maxDegree, sorted.length)];
+        int size = 0;
+        for (Hit c : sorted) {
+            if (size == kept.length) break;
+            boolean good = true;
+            for (int i = 0; i < size && good; i++) {
+                if (similarity(c.id(), kept[i]) > c.score()) good = false;
+            }
+            if (good) kept[size++] = c.id();
+        }
+        // Top up with the closest skipped candidates so sparse regions still get full lists
+        for (int i = 0; i < sorted.length && size < kept.length; i++) {
+            int id = sorted[i].id();
+            boolean present = false;
+            for (int j = 0; j < size; j++) if (kept[j] == id) { present = true; break; }
+            if (!present) kept[size++] = id;
+        }
+        return Arrays.copyOf(kept, size);
+    }
+
+    private void setLinks(int node, int lc, int[] neighbours, int n) {
+        int[] arr = lc == 0 ? links0 : upperLinks[node];
+        int base = base(node, lc);
+        System.arraycopy(neighbours, 0, arr, base + 1, n);
+        arr[base] = n;
+    }
+
+    private int base(int node, int lc) {
+        return lc == 0 ? node * (m0 + 1) : (lc - 1) * (m + 1);
+    }
+
+    private Object lock(int node) {
+        return locks[node & (LOCK_STRIPES - 1)];
+    }
+
+    // Copies node's neighbours at level lc into buf and returns how many there are
+    private int neighbours(int node, int lc, int[] buf, boolean locked) {
+        int[] arr = lc == 0 ? links0 : upperLinks[node];
+        int base = base(node, lc);
+        if (!locked) {
+            int degree = arr[base];
+            System.arraycopy(arr, base + 1, buf, 0, degree);
+            return degree;
+        }
+        synchronized (lock(node)) {
+            int degree = arr[base];
+            System.arraycopy(arr, base + 1, buf, 0, degree);
+            return degree;
+        }
+    }
+
+    // Hill-climbs to the node most similar to q on one level
+    private int greedy(float[] q, int ep, int lc, boolean locked) {
+        int[] buf = new int[m0];
+        int cur = ep;
+        float curSim = similarity(q, cur);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            int degree = neighbours(cur, lc, buf, locked);
+            for (int i = 0; i < degree; i++) {
+                float s = similarity(q, buf[i]);
+                if (s > curSim) { curSim = s; cur = buf[i]; changed = true; }
+            }
+        }
+        return cur;
+    }
+
+    // Beam search of width ef on one level; returns the ef most similar nodes found
+    private TopKHeap searchLayer(float[] q, int ep, int ef, int lc, boolean locked) {
+        Visited seen = visited.get();
+        seen.next();
+        int[] buf = new int[m0];
+        TopKHeap results = new TopKHeap(ef);
+        CandidateQueue candidates = seen.candidates;
+        candidates.clear();
+        float s = similarity(q, ep);
+        seen.mark(ep);
+        results.offer(ep, s);
+        candidates.push(ep, s);
+        while (candidates.size() > 0) {
+            float best = candidates.topScore();
+            int c = candidates.pop();
+            if (best < results.threshold()) break;
+            int degree = neighbours(c, lc, buf, locked);
+            for (int i = 0; i < degree; i++) {
+                int n = buf[i];
+                if (seen.mark(n)) {
+                    float ns = similarity(q, n);
+                    if (ns > results.threshold()) {
+                        results.offer(n, ns);
+                        candidates.push(n, ns);
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * @param ef beam width at level 0 (at least k); larger is slower and more accurate
+     * @return up to k hits with cosine scores, best first
+     */
+    public Hit[] search(float[] query, int k, int ef) {
+        if (query.length != dim)
+            throw new IllegalArgumentException("query has " + query.length + " dims, index has " + dim);
+        if (count == 0) return new Hit[0];
+        float[] q = CosineSimilarityVector.normalize(query);
+        int ep = entryPoint;
+        for (int lc = maxLevel; lc > 0; lc--) ep = greedy(q, ep, lc, false);
+        Hit[] found = searchLayer(q, ep, Math.max(ef, k), 0, false).toHits();
+        return found.length <= k ? found : Arrays.copyOf(found, k);
+    }
+
+    public int count() {
+        return count;
+    }
+
+    // Per-thread visited marks (epoch-tagged so they never need clearing) and candidate queue
+    private static final class Visited {
+        final int[] marks;
+        final CandidateQueue candidates = new CandidateQueue();
+        int epoch;
+
+        Visited(int n) {
+            marks = new int[n];
+        }
+
+        void next() {
+            if (++epoch == 0) {
+                Arrays.fill(marks, 0);
+                epoch = 1;
+            }
+        }
+
+        // true if node was not yet visited in this search
+        boolean mark(int node) {
+            if (marks[node] == epoch) return false;
+            marks[node] = epoch;
+            return true;
+        }
+    }
+
+    // Growable max-heap of (id, score) in primitive arrays
+    private static final class CandidateQueue {
+        int[] ids = new int[64];
+        float[] scores = new float[64];
+        int size;
+
+        void clear() {
+            size = 0;
+        }
+
+        int size() {
+            return size;
+        }
+
+        float topScore() {
+            return scores[0];
+        }
+
+        void push(int id, float score) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                scores = Arrays.copyOf(scores, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (scores[parent] >= score) break;
+                ids[i] = ids[parent];
+                scores[i] = scores[parent];
+                i = parent;
+            }
+            ids[i] = id;
+            scores[i] = score;
+        }
+
+        int pop() {
+            int top = ids[0];
+            int lastId = ids[--size];
+            float last = scores[size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) break;
+                if (child + 1 < size && scores[child + 1] > scores[child]) child++;
+                if (scores[child] <= last) break;
+                ids[i] = ids[child];
+                scores[i] = scores[child];
+                i = child;
+            }
+            ids[i] = lastId;
+            scores[i] = last;
+            return top;
+        }
+    }
+
+    public static void main(String[] args) {
+        int dim = 128, n = 100_000, k = 10, queries = 200;
+        float[] corpus = EvalData.clustered(n, dim, 1_000, 1234);
+        float[][] qs = EvalData.noisyQueries(corpus, dim, queries, 0.3f, 99);
+        long t0 = System.nanoTime();
+        Hit[][] truth = EvalData.groundTruth(corpus, dim, qs, k);
+        System.out.printf("brute force  : %8.3f ms/query%n", (System.nanoTime() - t0) / 1e6 / queries);
+
+        t0 = System.nanoTime();
+        HnswIndex index = new HnswIndex(corpus, dim, 16, 100, 42);
+        System.out.printf("HNSW build   : %8d ms (M=16, efConstruction=100)%n", (System.nanoTime() - t0) / 1_000_000);
+
+        for (int ef : new int[]{10, 20, 50, 100, 200}) {
+            for (int i = 0; i < 20; i++) index.search(qs[i], k, ef); // warm-up
+            Hit[][] approx = new Hit[queries][];
+            long[] latency = new long[queries];
+            for (int i = 0; i < queries; i++) {
+                long s = System.nanoTime();
+                approx[i] = index.search(qs[i], k, ef);
+                latency[i] = System.nanoTime() - s;
+            }
+            Arrays.sort(latency);
+            System.out.printf("ef=%-4d      : p50 %7.1f us, p99 %7.1f us, recall@%d = %.3f%n", ef,
+                    latency[queries / 2] / 1e3, latency[queries * 99 / 100] / 1e3, k, EvalData.recall(truth, approx));
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.javafest.aiatspeed.search;
+
+import com.javafest.aiatspeed.benchmark.CosineSimilarityVector;
+
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Inverted-file (IVF) index: the corpus is partitioned by k-means into {@code nlist} lists and a
+ * query only scans the {@code nprobe} lists whose centroids are closest to it.
+ * <p>
+ * Training is spherical k-means: centroids are unit vectors and a row belongs to the centroid with
+ * the largest dot product, which for a fixed row is the same as the largest cosine. Each iteration
+ * assigns rows on the fork-join pool in chunks, every chunk summing into its own partial centroids,
+ * and the partials are combined afterwards, so no locking is needed.
+ * <p>
+ * After training, rows are copied list by list into one contiguous array, so probing a list is a
+ * sequential scan just like {@link TopKSearch}, only over a few percent of the corpus.
+ */
+public class IvfIndex {
+
+    /** Rows per fork-join task during training and assignment. */
+    private static final int ROWS_PER_TASK = 4096;
+    /** Training sample per list; k-means converges long before it needs every row. */
+    private static final int TRAIN_ROWS_PER_LIST = 256;
+
+    private final int dim;
+    private final int nlist;
+    private final float[] centroids;   // nlist x dim, unit length
+    private final float[] data;        // rows grouped by list
+    private final float[] norms;       // norms of data rows
+    private final int[] listIds;       // original row id of each data row
+    private final int[] listStarts;    // list l occupies data rows [listStarts[l], listStarts[l + 1])
+
+    /**
+     * @param nlist      number of k-means partitions
+     * @param iterations k-means iterations
+     */
+    public IvfIndex(float[] corpus, int dim, int nlist, int iterations, long seed) {
+        if (dim <= 0 || corpus.length % dim != 0)
+            throw new IllegalArgumentException("corpus length " + corpus.length + " is not a multiple of dim " + dim);
+        int count = corpus.length / dim;
+        if (nlist <= 0 || nlist > count)
+            throw new IllegalArgumentException("nlist must be in [1, " + count + "]: " + nlist);
+        this.dim = dim;
+        this.nlist = nlist;
+        this.centroids = train(corpus, count, iterations, new Random(seed));
+
+        int[] assignment = new int[count];
+        assign(centroids, corpus, 0, count, assignment, null, null);
+
+        // Counting sort rows into contiguous lists
+        this.listStarts = new int[nlist + 1];
+        for (int a : assignment) listStarts[a + 1]++;
+        for (int l = 0; l < nlist; l++) listStarts[l + 1] += listStarts[l];
+        int[] fill = listStarts.clone();
+        this.data = new float[count * dim];
+        this.norms = new float[count];
+        this.listIds = new int[count];
+        for (int r = 0; r < count; r++) {
+            int slot = fill[assignment[r]]++;
+            System.arraycopy(corpus, r * dim, data, slot * dim, dim);
+            listIds[slot] = r;
+        }
+        IntStream.range(0, count).parallel().forEach(s -> norms[s] = CosineSimilarityVector.norm(data, s * dim, dim));
+    }
+
+    private float[] train(float[] corpus, int count, int iterations, Random r) {
+        // Train on a random sample of rows
+        int sampleRows = (int) Math.min(count, (long) nlist * TRAIN_ROWS_PER_LIST);
+        float[] sample = new float[sampleRows * dim];
+        for (int i = 0; i < sampleRows; i++) {
+            int row = sampleRows == count ? i : r.nextInt(count);
+            System.arraycopy(corpus, row * dim, sample, i * dim, dim);
+        }
+
+        float[] c = new float[nlist * dim];
+        for (int l = 0; l < nlist; l++) seed(c, l, sample, r.nextInt(sampleRows));
+        int[] assignment = new int[sampleRows];
+        float[] sums = new float[nlist * dim];
+        int[] counts = new int[nlist];
+        for (int it = 0; it < iterations; it++) {
+            assign(c, sample, 0, sampleRows, assignment, sums, counts);
+            for (int l = 0; l < nlist; l++) {
+                if (counts[l] == 0) {
+                    seed(c, l, sample, r.nextInt(sampleRows)); // empty list: restart from a random row
+                } else {
+                    System.arraycopy(sums, l * dim, c, l * dim, dim);
+                    normalizeRow(c, l);
+                }
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Assigns rows {@code [from, to)} of {@code rows} to their nearest centroid in {@code c}.
+     * When {@code sums}/{@code counts} are given they receive the per-list vector sums and sizes.
+     */
+    private void assign(float[] c, float[] rows, int from, int to, int[] assignment, float[] sums, int[] counts) {
+        int tasks = (to - from + ROWS_PER_TASK - 1) / ROWS_PER_TASK;
+        if (sums == null) {
+            IntStream.range(0, tasks).parallel().forEach(t -> {
+                int end = Math.min(to, from + (t + 1) * ROWS_PER_TASK);
+                for (int row = from + t * ROWS_PER_TASK; row < end; row++) assignment[row] = nearest(c, rows, row * dim);
+            });
+            return;
+        }
+        Partial total = IntStream.range(0, tasks).parallel()
+                .mapToObj(t -> {
+                    Partial p = new Partial(nlist, dim);
+                    int end = Math.min(to, from + (t + 1) * ROWS_PER_TASK);
+                    for (int row = from + t * ROWS_PER_TASK; row < end; row++) {
+                        int best = nearest(c, rows, row * dim);
+                        assignment[row] = best;
+                        p.add(best, rows, row * dim);
+                    }
+                    return p;
+                })
+                .reduce(Partial::merge)
+                .orElseGet(() -> new Partial(nlist, dim));
+        System.arraycopy(total.sums, 0, sums, 0, sums.length);
+        System.arraycopy(total.counts, 0, counts, 0, counts.length);
+    }
+
+    private int nearest(float[] c, float[] v, int offset) {
+        int best = 0;
+        float bestDot = Float.NEGATIVE_INFINITY;
+        for (int l = 0; l < nlist; l++) {
+            float d = CosineSimilarityVector.dot(c, l * dim, v, offset, dim);
+            if (d > bestDot) { bestDot = d; best = l; }
+        }
+        return best;
+    }
+
+    private void seed(float[] c, int list, float[] rows, int row) {
+        System.arraycopy(rows, row * dim, c, list * dim, dim);
+        normalizeRow(c, list);
+    }
+
+    private void normalizeRow(float[] c, int list) {
+        float n = CosineSimilarityVector.norm(c, list * dim, dim);
+        if (n == 0f) return;
+        for (int j = 0; j < dim; j++) c[list * dim + j] /= n;
+    }
+
+    /**
+     * Scans the {@code nprobe} lists nearest to the query, one fork-join task per list.
+     *
+     * @return up to k hits, best first, ids refer to rows of the original corpus
+     */
+    public Hit[] search(float[] query, int k, int nprobe) {
+        if (query.length != dim)
+            throw new IllegalArgumentException("query has " + query.length + " dims, index has " + dim);
+        float queryNorm = CosineSimilarityVector.norm(query, 0, dim);
+        Hit[] probes = nearestLists(query, Math.min(nprobe, nlist));
+        return IntStream.range(0, probes.length).parallel()
+                .mapToObj(p -> scanList(query, queryNorm, probes[p].id(), k))
+                .reduce(TopKHeap::merge)
+                .orElseGet(() -> new TopKHeap(k))
+                .toHits();
+    }
+
+    private Hit[] nearestLists(float[] query, int nprobe) {
+        TopKHeap heap = new TopKHeap(nprobe);
+        for (int l = 0; l < nlist; l++) heap.offer(l, CosineSimilarityVector.dot(centroids, l * dim, query, 0, dim));
+        return heap.toHits();
+    }
+
+    private TopKHeap scanList(float[] query, float queryNorm, int list, int k) {
+        TopKHeap heap = new TopKHeap(k);
+        for (int s = listStarts[list]; s < listStarts[list + 1]; s++) {
+            float denom = queryNorm * norms[s];
+            float score = denom == 0f ? 0f : CosineSimilarityVector.dot(query, 0, data, s * dim, dim) / denom;
+            heap.offer(listIds[s], score);
+        }
+        return heap;
+    }
+
+    /**
+     * Number of rows scanned by a query probing the given lists, for reporting.
+     */
+    public int rowsScanned(float[] query, int nprobe) {
+        int rows = 0;
+        for (Hit h : nearestLists(query, Math.min(nprobe, nlist))) rows += listStarts[h.id() + 1] - listStarts[h.id()];
+        return rows;
+    }
+
+    public int count() {
+        return listIds.length;
+    }
+
+    // Per-task centroid sums and counts, merged after each parallel assignment pass
+    private static final class Partial {
+        final float[] sums;
+        final int[] counts;
+
+        Partial(int nlist, int dim) {
+            sums = new float[nlist * dim];
+            counts = new int[nlist];
+        }
+
+        void add(int list, float[] rows, int offset) {
+            int dim = sums.length / counts.length;
+            counts[list]++;
+            for (int j = 0; j < dim; j++) sums[list * dim + j] += rows[offset + j];
+        }
+
+        Partial merge(Partial other) {
+            for (int i = 0; i < sums.length; i++) sums[i] += other.sums[i];
+            for (int i = 0; i < counts.length; i++) counts[i] += other.counts[i];
+            return this;
+        }
+    }
+
+    public static void main(String[] args) {
+        int dim = 128, n = 200_000, k = 10, queries = 50, nlist = 512;
+        float[] corpus = EvalData.clustered(n, dim, 2_000, 1234);
+        float[][] qs = EvalData.noisyQueries(corpus, dim, queries, 0.05f, 99);
+        long t0 = System.nanoTime();
+        Hit[][] truth = EvalData.groundTruth(corpus, dim, qs, k);
+        System.out.printf("brute force      : %8.3f ms/query%n", (System.nanoTime() - t0) / 1e6 / queries);
+
+        t0 = System.nanoTime();
+        IvfIndex index = new IvfIndex(corpus, dim, nlist, 10, 42);
+        System.out.printf("IVF training     : %8d ms (nlist=%d)%n", (System.nanoTime() - t0) / 1_000_000, nlist);
+
+        for (int nprobe : new int[]{1, 4, 16, 64}) {
+            for (int i = 0; i < 5; i++) index.search(qs[i], k, nprobe); // warm-up
+            Hit[][] approx = new Hit[queries][];
+            t0 = System.nanoTime();
+            for (int i = 0; i < queries; i++) approx[i] = index.search(qs[i], k, nprobe);
+            long ns = System.nanoTime() - t0;
+            long scanned = 0;
+            for (float[] q : qs) scanned += index.rowsScanned(q, nprobe);
+            System.out.printf("nprobe=%-3d       : %8.3f ms/query, %5.2f%% of corpus scanned, recall@%d = %.3f%n",
+                    nprobe, ns / 1e6 / queries, 100.0 * scanned / queries / n, k, EvalData.recall(truth, approx));
+        }
+    }
+}
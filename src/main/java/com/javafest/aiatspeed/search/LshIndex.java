@@ -0,0 +1,119 @@
+package com.javafest.aiatspeed.search;
+
+import com.javafest.aiatspeed.quant.SimHash;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * Multi-table locality-sensitive hashing index for sub-linear candidate generation.
+ * <p>
+ * Each of the {@code L} tables hashes a row to a {@code bitsPerTable}-bit {@link SimHash} code.
+ * Near rows share a bucket with high probability, so a query only looks at the rows in its own
+ * bucket of each table; the union is re-ranked by exact SIMD cosine. More bits per table make
+ * buckets smaller (faster, lower recall); more tables give a near neighbour more chances to
+ * collide (higher recall, more candidates).
+ * <p>
+ * Buckets are stored CSR-style per table: sorted distinct codes, bucket start offsets, and row ids
+ * grouped by bucket, all primitive arrays. Lookup is a binary search over the codes.
+ */
+public class LshIndex {
+
+    private final int count;
+    private final SimHash[] hashes;
+    private final long[][] codes;
+    private final int[][] starts;
+    private final int[][] ids;
+    private final TopKSearch exact;
+
+    /**
+     * @param tables       number of hash tables (L)
+     * @param bitsPerTable code length per table, 1..31, so a packed (code, row) long stays non-negative
+     */
+    public LshIndex(float[] corpus, int dim, int tables, int bitsPerTable, long seed) {
+        if (tables <= 0) throw new IllegalArgumentException("tables must be positive: " + tables);
+        if (bitsPerTable < 1 || bitsPerTable > 31)
+            throw new IllegalArgumentException("bitsPerTable must be in [1, 31]: " + bitsPerTable);
+        this.exact = new TopKSearch(corpus, dim);
+        this.count = exact.count();
+        this.hashes = new SimHash[tables];
+        this.codes = new long[tables][];
+        this.starts = new int[tables][];
+        this.ids = new int[tables][];
+        Random seeds = new Random(seed);
+        for (int t = 0; t < tables; t++) hashes[t] = new SimHash(dim, bitsPerTable, seeds.nextLong());
+        for (int t = 0; t < tables; t++) buildTable(t, corpus);
+    }
+
+    private void buildTable(int t, float[] corpus) {
+        long[] fingerprints = hashes[t].fingerprintAll(corpus); // one word per row
+        // Sort (code, row) pairs packed into one long: code in the high half, row in the low half
+        long[] packed = new long[count];
+        for (int r = 0; r < count; r++) packed[r] = (fingerprints[r] << 32) | r;
+        Arrays.parallelSort(packed);
+
+        int[] rows = new int[count];
+        long[] keys = new long[count];
+        int[] bucketStarts = new int[count + 1];
+        int buckets = 0;
+        for (int i = 0; i < count; i++) {
+            long code = packed[i] >>> 32;
+            rows[i] = (int) packed[i];
+            if (buckets == 0 || keys[buckets - 1] != code) {
+                keys[buckets] = code;
+                bucketStarts[buckets++] = i;
+            }
+        }
+        bucketStarts[buckets] = count;
+        codes[t] = Arrays.copyOf(keys, buckets);
+        starts[t] = Arrays.copyOf(bucketStarts, buckets + 1);
+        ids[t] = rows;
+    }
+
+    /**
+     * Distinct row ids that share a bucket with {@code query} in at least one table, ascending.
+     */
+    public int[] candidates(float[] query) {
+        BitSet seen = new BitSet(count);
+        for (int t = 0; t < hashes.length; t++) {
+            long code = hashes[t].fingerprint(query)[0];
+            int b = Arrays.binarySearch(codes[t], code);
+            if (b < 0) continue;
+            for (int i = starts[t][b]; i < starts[t][b + 1]; i++) seen.set(ids[t][i]);
+        }
+        return seen.stream().toArray();
+    }
+
+    /**
+     * @return up to k hits among the LSH candidates, with exact cosine scores, best first
+     */
+    public Hit[] search(float[] query, int k) {
+        return exact.rescore(query, candidates(query), k);
+    }
+
+    public static void main(String[] args) {
+        int dim = 128, n = 200_000, k = 10, queries = 50;
+        float[] corpus = EvalData.clustered(n, dim, 2_000, 1234);
+        float[][] qs = EvalData.noisyQueries(corpus, dim, queries, 0.05f, 99);
+        long t0 = System.nanoTime();
+        Hit[][] truth = EvalData.groundTruth(corpus, dim, qs, k);
+        System.out.printf("brute force           : %8.3f ms/query%n", (System.nanoTime() - t0) / 1e6 / queries);
+
+        for (int bits : new int[]{12, 16, 20}) {
+            for (int tables : new int[]{4, 8, 16}) {
+                LshIndex index = new LshIndex(corpus, dim, tables, bits, 42);
+                for (int i = 0; i < 5; i++) index.search(qs[i], k); // warm-up
+                Hit[][] approx = new Hit[queries][];
+                long candidates = 0;
+                t0 = System.nanoTime();
+                for (int i = 0; i < queries; i++) approx[i] = index.search(qs[i], k);
+                long ns = System.nanoTime() - t0;
+                for (float[] q : qs) candidates += index.candidates(q).length;
+                System.out.printf("L=%2d bits=%2d          : %8.3f ms/query, %7d candidates, recall@%d = %.3f%n",
+                        tables, bits, ns / 1e6 / queries, candidates / queries, k,
+                        EvalData.recall(truth, approx));
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.javafest.aiatspeed.search;
+
+import com.javafest.aiatspeed.io.EmbeddingFile;
+import com.javafest.aiatspeed.kernel.SegmentKernels;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.IntStream;
+
+/**
+ * Brute-force top-k cosine search straight over a memory-mapped {@link EmbeddingFile}.
+ * <p>
+ * Nothing is loaded or precomputed up front: each row is scored in place by the one-pass
+ * {@link SegmentKernels#cosine} kernel, so the first query pages the corpus in and later queries
+ * run from the page cache. Row norms are recomputed on the fly (for a corpus that is read from
+ * memory anyway, the extra FMA per element is hidden behind the loads). Compare {@link TopKSearch},
+ * which must hold the corpus and its norms on the heap.
+ */
+public class MappedSearch {
+
+    private static final int ROWS_PER_TASK = 4096;
+
+    private final EmbeddingFile file;
+    private final int count;
+
+    public MappedSearch(EmbeddingFile file) {
+        if (file.count() > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("hit ids are ints; file has " + file.count() + " rows");
+        this.file = file;
+        this.count = (int) file.count();
+    }
+
+    /**
+     * @return up to k hits, best first; ids are row numbers in the file
+     */
+    public Hit[] search(float[] query, int k) {
+        if (query.length != file.dim())
+            throw new IllegalArgumentException("query has " + query.length + " dims, file has " + file.dim());
+        int tasks = (count + ROWS_PER_TASK - 1) / ROWS_PER_TASK;
+        return IntStream.range(0, tasks).parallel()
+                .mapToObj(t -> scan(query, k, t * ROWS_PER_TASK, Math.min(count, (t + 1) * ROWS_PER_TASK)))
+                .reduce(TopKHeap::merge)
+                .orElseGet(() -> new TopKHeap(k))
+                .toHits();
+    }
+
+    private TopKHeap scan(float[] query, int k, int fromRow, int toRow) {
+        TopKHeap heap = new TopKHeap(k);
+        MemorySegment seg = file.segment();
+        int dim = file.dim();
+        for (int r = fromRow; r < toRow; r++) {
+            heap.offer(r, SegmentKernels.cosine(seg, file.rowOffset(r), query, 0, dim));
+        }
+        return heap;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int dim = 128, n = 1_000_000, k = 10;
+        float[] corpus = EvalData.clustered(n, dim, 1_000, 1234);
+        float[][] qs = EvalData.noisyQueries(corpus, dim, 20, 0.3f, 99);
+        Path path = Files.createTempFile("corpus", ".emb");
+        try {
+            long t0 = System.nanoTime();
+            EmbeddingFile.write(path, corpus, dim);
+            System.out.printf("Wrote %d MB in %d ms%n", Files.size(path) >> 20, (System.nanoTime() - t0) / 1_000_000);
+
+            t0 = System.nanoTime();
+            TopKSearch heap = new TopKSearch(corpus, dim);
+            System.out.printf("Heap ingest (norms) : %6d ms%n", (System.nanoTime() - t0) / 1_000_000);
+            t0 = System.nanoTime();
+            try (EmbeddingFile file = EmbeddingFile.open(path)) {
+                MappedSearch mapped = new MappedSearch(file);
+                System.out.printf("Mapped open         : %6.2f ms (%d rows x %d)%n",
+                        (System.nanoTime() - t0) / 1e6, file.count(), file.dim());
+
+                for (int i = 0; i < 3; i++) { heap.searchParallel(qs[i], k); mapped.search(qs[i], k); } // warm-up
+                int agree = 0;
+                t0 = System.nanoTime();
+                Hit[][] truth = new Hit[qs.length][];
+                for (int i = 0; i < qs.length; i++) truth[i] = heap.searchParallel(qs[i], k);
+                long heapNs = System.nanoTime() - t0;
+                t0 = System.nanoTime();
+                Hit[][] got = new Hit[qs.length][];
+                for (int i = 0; i < qs.length; i++) got[i] = mapped.search(qs[i], k);
+                long mappedNs = System.nanoTime() - t0;
+                for (int i = 0; i < qs.length; i++) if (truth[i][0].id() == got[i][0].id()) agree++;
+                System.out.printf("Heap scan   : %8.1f queries/s%n", qs.length * 1e9 / heapNs);
+                System.out.printf("Mapped scan : %8.1f queries/s, top-1 agreement %d/%d, recall@%d %.3f%n",
+                        qs.length * 1e9 / mappedNs, agree, qs.length, k, EvalData.recall(truth, got));
+            }
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+}
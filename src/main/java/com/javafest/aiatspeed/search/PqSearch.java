@@ -0,0 +1,139 @@
+package com.javafest.aiatspeed.search;
+
+import com.javafest.aiatspeed.benchmark.CosineSimilarityVector;
+import com.javafest.aiatspeed.kernel.KernelProfile;
+import com.javafest.aiatspeed.quant.ProductQuantizer;
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.util.stream.IntStream;
+
+/**
+ * Cosine search over product-quantized codes with SIMD lookup-table scans.
+ * <p>
+ * Rows are unit-normalized before encoding, so the table sum for a row approximates its cosine with
+ * the (normalized) query. Codes are stored in blocks of {@code SPECIES.length()} rows, transposed so
+ * that the codes of one sub-space for the whole block are adjacent. For each sub-space the scan
+ * widens that run of bytes into an index vector and gathers the matching table entries with
+ * {@link FloatVector#fromArray(VectorSpecies, float[], int, int[], int)}, scoring a whole block
+ * of rows per gather.
+ */
+public class PqSearch {
+
+    static final VectorSpecies<Float> SPECIES = KernelProfile.FLOAT_SPECIES;
+    static final VectorSpecies<Integer> INT_SPECIES =
+            VectorSpecies.of(int.class, VectorShape.forBitSize(SPECIES.vectorBitSize()));
+    // At least 64 bits wide; when it has more lanes than a block, only the first part is used
+    static final VectorSpecies<Byte> BYTE_SPECIES =
+            VectorSpecies.of(byte.class, VectorShape.forBitSize(Math.max(64, SPECIES.length() * 8)));
+    private static final int BLOCK = SPECIES.length();
+    private static final int BLOCKS_PER_TASK = 256;
+
+    private final ProductQuantizer pq;
+    private final int count;
+    private final int blocks;
+    private final byte[] codes;  // blocks x m x BLOCK, plus padding for the last wide byte load
+    private final TopKSearch exact;
+
+    /**
+     * @param m          sub-spaces (bytes per row); must divide {@code dim}
+     * @param iterations k-means iterations per sub-space codebook
+     */
+    public PqSearch(float[] corpus, int dim, int m, int iterations, long seed) {
+        this.exact = new TopKSearch(corpus, dim);
+        this.count = exact.count();
+        float[] unit = new float[corpus.length];
+        IntStream.range(0, count).parallel().forEach(r -> {
+            float n = CosineSimilarityVector.norm(corpus, r * dim, dim);
+            float inv = n == 0f ? 0f : 1f / n;
+            for (int j = 0; j < dim; j++) unit[r * dim + j] = corpus[r * dim + j] * inv;
+        });
+        this.pq = ProductQuantizer.train(unit, dim, m, iterations, seed);
+        this.blocks = (count + BLOCK - 1) / BLOCK;
+        this.codes = new byte[blocks * m * BLOCK + BYTE_SPECIES.length()];
+        IntStream.range(0, count).parallel().forEach(r ->
+                pq.encode(unit, r * dim, codes, (r / BLOCK) * m * BLOCK + r % BLOCK, BLOCK));
+    }
+
+    /** Bytes held by the codes. */
+    public long memoryBytes() {
+        return codes.length;
+    }
+
+    /**
+     * @return up to k hits scored by the PQ approximation alone, best first
+     */
+    public Hit[] search(float[] query, int k) {
+        float[] lut = pq.lookupTable(CosineSimilarityVector.normalize(query));
+        int tasks = (blocks + BLOCKS_PER_TASK - 1) / BLOCKS_PER_TASK;
+        return IntStream.range(0, tasks).parallel()
+                .mapToObj(t -> scan(lut, k, t * BLOCKS_PER_TASK, Math.min(blocks, (t + 1) * BLOCKS_PER_TASK)))
+                .reduce(TopKHeap::merge)
+                .orElseGet(() -> new TopKHeap(k))
+                .toHits();
+    }
+
+    /**
+     * PQ scan for {@code candidates} rows, re-ranked by exact cosine.
+     */
+    public Hit[] search(float[] query, int k, int candidates) {
+        return exact.rescore(query, search(query, candidates), k);
+    }
+
+    private TopKHeap scan(float[] lut, int k, int fromBlock, int toBlock) {
+        TopKHeap heap = new TopKHeap(k);
+        int m = pq.m();
+        int[] index = new int[BLOCK];
+        float[] scores = new float[BLOCK];
+        for (int b = fromBlock; b < toBlock; b++) {
+            int base = b * m * BLOCK;
+            FloatVector acc = FloatVector.zero(SPECIES);
+            for (int s = 0; s < m; s++) {
+                ((IntVector) ByteVector.fromArray(BYTE_SPECIES, codes, base + s * BLOCK)
+                        .convertShape(VectorOperators.B2I, INT_SPECIES, 0))
+                        .and(0xFF)
+                        .intoArray(index, 0);
+                acc = acc.add(FloatVector.fromArray(SPECIES, lut, s * ProductQuantizer.CENTROIDS, index, 0));
+            }
+            acc.intoArray(scores, 0);
+            int rows = Math.min(BLOCK, count - b * BLOCK);
+            for (int j = 0; j < rows; j++) heap.offer(b * BLOCK + j, scores[j]);
+        }
+        return heap;
+    }
+
+    public static void main(String[] args) {
+        int dim = 128, n = 200_000, k = 10, m = 16, queries = 50;
+        float[] corpus = EvalData.clustered(n, dim, 2_000, 1234);
+        float[][] qs = EvalData.noisyQueries(corpus, dim, queries, 0.3f, 99);
+        TopKSearch brute = new TopKSearch(corpus, dim);
+        long t0 = System.nanoTime();
+        PqSearch index = new PqSearch(corpus, dim, m, 8, 42);
+        System.out.printf("PQ training+encoding: %d ms (m=%d)%n", (System.nanoTime() - t0) / 1_000_000, m);
+        System.out.printf("float32 corpus: %d MB, PQ codes: %d MB%n", 4L * corpus.length >> 20, index.memoryBytes() >> 20);
+
+        for (int i = 0; i < 5; i++) { brute.searchParallel(qs[i], k); index.search(qs[i], k, 100); } // warm-up
+        Hit[][] truth = new Hit[queries][];
+        t0 = System.nanoTime();
+        for (int i = 0; i < queries; i++) truth[i] = brute.searchParallel(qs[i], k);
+        long floatNs = System.nanoTime() - t0;
+        Hit[][] approx = new Hit[queries][];
+        t0 = System.nanoTime();
+        for (int i = 0; i < queries; i++) approx[i] = index.search(qs[i], k);
+        long pqNs = System.nanoTime() - t0;
+        Hit[][] reranked = new Hit[queries][];
+        t0 = System.nanoTime();
+        for (int i = 0; i < queries; i++) reranked[i] = index.search(qs[i], k, 100);
+        long rerankNs = System.nanoTime() - t0;
+
+        System.out.printf("float32 scan        : %8.1f queries/s%n", queries * 1e9 / floatNs);
+        System.out.printf("PQ LUT scan         : %8.1f queries/s, recall@%d = %.3f%n",
+                queries * 1e9 / pqNs, k, EvalData.recall(truth, approx));
+        System.out.printf("PQ scan + rerank 100: %8.1f queries/s, recall@%d = %.3f%n",
+                queries * 1e9 / rerankNs, k, EvalData.recall(truth, reranked));
+    }
+}
@@ -0,0 +1,89 @@
+package com.javafest.aiatspeed.search;
+
+import com.javafest.aiatspeed.quant.Int8Store;
+
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Two-phase top-k cosine search: an int8 first pass over an {@link Int8Store} picks
+ * {@code candidates} rows, which are then rescored with exact float cosine.
+ * <p>
+ * The first pass streams a quarter of the bytes of a float scan, which is what matters once the
+ * corpus no longer fits in cache. The float rows are touched only for the few candidates,
+ * so they can live somewhere slower (e.g. a memory-mapped file) without hurting the scan.
+ */
+public class QuantizedSearch {
+
+    private static final int ROWS_PER_TASK = 4096;
+
+    private final Int8Store store;
+    private final TopKSearch exact;
+
+    /**
+     * @param corpus flat row-major float corpus, quantized here and kept for rescoring
+     */
+    public QuantizedSearch(float[] corpus, int dim) {
+        this.store = Int8Store.quantize(corpus, dim);
+        this.exact = new TopKSearch(corpus, dim);
+    }
+
+    public Int8Store store() {
+        return store;
+    }
+
+    /**
+     * @param candidates rows kept by the int8 pass for rescoring; larger values raise recall
+     * @return up to k hits with exact cosine scores, best first
+     */
+    public Hit[] search(float[] query, int k, int candidates) {
+        Int8Store.Query q = store.encodeQuery(query);
+        int n = store.count();
+        int tasks = (n + ROWS_PER_TASK - 1) / ROWS_PER_TASK;
+        TopKHeap coarse = IntStream.range(0, tasks).parallel()
+                .mapToObj(t -> {
+                    TopKHeap heap = new TopKHeap(candidates);
+                    for (int r = t * ROWS_PER_TASK, end = Math.min(n, r + ROWS_PER_TASK); r < end; r++) {
+                        heap.offer(r, store.cosine(q, r));
+                    }
+                    return heap;
+                })
+                .reduce(TopKHeap::merge)
+                .orElseGet(() -> new TopKHeap(candidates));
+        return exact.rescore(query, coarse.toHits(), k);
+    }
+
+    public static void main(String[] args) {
+        int dim = 512, n = 200_000, k = 10, candidates = 100, queries = 20;
+        Random r = new Random(1234);
+        float[] corpus = new float[n * dim];
+        for (int i = 0; i < corpus.length; i++) corpus[i] = r.nextFloat() - 0.5f;
+        float[][] qs = new float[queries][dim];
+        for (float[] q : qs) for (int j = 0; j < dim; j++) q[j] = r.nextFloat() - 0.5f;
+
+        TopKSearch exact = new TopKSearch(corpus, dim);
+        QuantizedSearch int8 = new QuantizedSearch(corpus, dim);
+        System.out.printf("float32 corpus: %d MB, int8 corpus: %d MB%n",
+                4L * corpus.length >> 20, int8.store().memoryBytes() >> 20);
+
+        // Warm-up
+        for (int i = 0; i < 3; i++) {
+            exact.searchParallel(qs[i], k);
+            int8.search(qs[i], k, candidates);
+        }
+
+        Hit[][] truth = new Hit[queries][];
+        long t0 = System.nanoTime();
+        for (int i = 0; i < queries; i++) truth[i] = exact.searchParallel(qs[i], k);
+        long floatNs = System.nanoTime() - t0;
+
+        Hit[][] approx = new Hit[queries][];
+        t0 = System.nanoTime();
+        for (int i = 0; i < queries; i++) approx[i] = int8.search(qs[i], k, candidates);
+        long int8Ns = System.nanoTime() - t0;
+
+        System.out.printf("float32 scan      : %8.1f queries/s%n", queries * 1e9 / floatNs);
+        System.out.printf("int8 scan+rescore : %8.1f queries/s, recall@%d = %.3f%n",
+                queries * 1e9 / int8Ns, k, EvalData.recall(truth, approx));
+    }
+}
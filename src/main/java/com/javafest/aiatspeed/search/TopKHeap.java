@@ -0,0 +1,102 @@
+package com.javafest.aiatspeed.search;
+
+import java.util.Arrays;
+
+/**
+ * Bounded min-heap that keeps the k best (id, score) pairs seen so far.
+ * <p>
+ * Ids and scores live in two primitive arrays, so offering a candidate never allocates.
+ * The root is the worst retained hit, which makes the common "not good enough" case a single compare.
+ * Ties on score are broken by the smaller id, so merging per-thread heaps gives the same
+ * answer as a single-threaded scan.
+ */
+public final class TopKHeap {
+
+    private final int k;
+    private final int[] ids;
+    private final float[] scores;
+    private int size;
+
+    public TopKHeap(int k) {
+        if (k <= 0) throw new IllegalArgumentException("k must be positive: " + k);
+        this.k = k;
+        this.ids = new int[k];
+        this.scores = new float[k];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Score a candidate has to beat to enter the heap, or {@code -Infinity} while it is not yet full.
+     */
+    public float threshold() {
+        return size < k ? Float.NEGATIVE_INFINITY : scores[0];
+    }
+
+    /**
+     * Offers a candidate; it is kept only if it ranks among the best k seen so far.
+     */
+    public void offer(int id, float score) {
+        if (size < k) {
+            ids[size] = id;
+            scores[size] = score;
+            siftUp(size++);
+        } else if (worse(ids[0], scores[0], id, score)) {
+            ids[0] = id;
+            scores[0] = score;
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Folds every hit of {@code other} into this heap.
+     */
+    public TopKHeap merge(TopKHeap other) {
+        for (int i = 0; i < other.size; i++) offer(other.ids[i], other.scores[i]);
+        return this;
+    }
+
+    /**
+     * Returns the retained hits, best first.
+     */
+    public Hit[] toHits() {
+        Hit[] hits = new Hit[size];
+        for (int i = 0; i < size; i++) hits[i] = new Hit(ids[i], scores[i]);
+        Arrays.sort(hits, (x, y) -> worse(x.id(), x.score(), y.id(), y.score()) ? 1
+                : worse(y.id(), y.score(), x.id(), x.score()) ? -1 : 0);
+        return hits;
+    }
+
+    // true if (idA, scoreA) ranks below (idB, scoreB)
+    private static boolean worse(int idA, float scoreA, int idB, float scoreB) {
+        return scoreA < scoreB || (scoreA == scoreB && idA > idB);
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!worse(ids[i], scores[i], ids[parent], scores[parent])) break;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int left = 2 * i + 1;
+            if (left >= size) break;
+            int right = left + 1;
+            int child = right < size && worse(ids[right], scores[right], ids[left], scores[left]) ? right : left;
+            if (!worse(ids[child], scores[child], ids[i], scores[i])) break;
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    private void swap(int i, int j) {
+        int id = ids[i]; ids[i] = ids[j]; ids[j] = id;
+        float s = scores[i]; scores[i] = scores[j]; scores[j] = s;
+    }
+}
@@ -1,8 +1,9 @@
 package com.javafest.aiatspeed.vector;
 
+import com.javafest.aiatspeed.kernel.RandomData;
+import com.javafest.aiatspeed.kernel.Reductions;
 import module jdk.incubator.vector;
 
-import java.util.Random;
 /**
  * Demonstrates the usage of Java's Vector API for computing the dot product of two large float arrays.
  * This class compares the performance of a scalar implementation versus a vectorized implementation.
@@ -29,15 +30,13 @@ public class DotProductVectorDemo {
         System.out.println(" Dot-product Demo (scalar vs Vector API)");
         float[] a = new float[SIZE];
         float[] b = new float[SIZE];
-        Random r = new Random(123);
-        for (int i = 0; i < SIZE; i++) {
-            a[i] = r.nextFloat();
-            b[i] = r.nextFloat();
-        }
+        RandomData.fillUniform(a, 123);
+        RandomData.fillUniform(b, 124);
 
         // Warm-up
         scalarDot(a,b);
         vectorDot(a,b);
+        Reductions.dot(a,b);
 
         NoTimer t = new NoTimer();
         float s1 = scalarDot(a,b);
@@ -46,6 +45,10 @@ public class DotProductVectorDemo {
         t.reset();
         float s2 = vectorDot(a,b);
         System.out.printf("Vector dot: %d ms (result %.3f)%n", t.elapsedMillis(), s2);
+
+        t.reset();
+        float s3 = Reductions.dot(a,b);
+        System.out.printf("Vector dot, 4 accumulators: %d ms (result %.3f)%n", t.elapsedMillis(), s3);
     }
 
     /**
@@ -77,10 +80,7 @@ public class DotProductVectorDemo {
             FloatVector vb = FloatVector.fromArray(SPECIES, b, i);
             acc = acc.add(va.mul(vb));
         }
-        float sum = 0f;
-        float[] tmp = new float[SPECIES.length()];
-        acc.intoArray(tmp, 0);
-        for (float v : tmp) sum += v;
+        float sum = acc.reduceLanes(VectorOperators.ADD);
         for (; i < a.length; i++) sum += a[i] * b[i];
         return sum;
     }
@@ -1,5 +1,6 @@
 package com.javafest.aiatspeed.vector;
 
+import com.javafest.aiatspeed.kernel.KernelProfile;
 import jdk.incubator.vector.*;
 
 import java.util.Random;
@@ -30,6 +31,8 @@ public static void main(String[] args) {
         report("float", FloatVector.SPECIES_PREFERRED, 32);
         report("double",DoubleVector.SPECIES_PREFERRED, 64);
 
+        System.out.println("\nKernel profile: " + KernelProfile.describe());
+
         if (quickBench) {
         System.out.println("\nQuick bench (rough, not JMH): elementwise y = a * s + b (float)");
         quickBenchSaxpyFloat(50_000_000); // adjust size for your machine
@@ -1,18 +1,20 @@
 package com.javafest.aiatspeed.vector;
 
-import module jdk.incubator.vector;
+import com.javafest.aiatspeed.kernel.RandomData;
+import com.javafest.aiatspeed.kernel.Reductions;
 import module java.base;
 
 /**
  * VectorHashingDemo
  * Simulates a simple "embedding hashing" or fingerprinting by computing many dot-products
  * in a vectorized way and demonstrates speed vs scalar approach.
+ * For real binary fingerprints (sign bits of random projections, compared by Hamming distance)
+ * see {@link com.javafest.aiatspeed.quant.SimHash}.
  */
 public class VectorHashingDemo {
 
     static final int VECTOR_SIZE = 512;
     static final int NUM_INPUTS = 200_000; // number of embeddings to process
-    static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
 
     /**
      * The main entry point for the VectorHashingDemo application. This method
@@ -27,13 +29,8 @@ public class VectorHashingDemo {
 
     public static void main(String[] args) {
         System.out.println("VectorHashingDemo starting...");
-        float[][] inputs = new float[NUM_INPUTS][VECTOR_SIZE];
-        float[] weights = new float[VECTOR_SIZE];
-        Random rand = new Random(1234);
-        for (int i = 0; i < NUM_INPUTS; i++)
-            for (int j = 0; j < VECTOR_SIZE; j++)
-                inputs[i][j] = rand.nextFloat();
-        for (int j = 0; j < VECTOR_SIZE; j++) weights[j] = rand.nextFloat();
+        float[][] inputs = RandomData.uniformRows(NUM_INPUTS, VECTOR_SIZE, 0f, 1f, 1234);
+        float[] weights = RandomData.uniform(VECTOR_SIZE, 1235);
 
         // Warm-up
         float s1 = scalarProcess(inputs, weights);
@@ -82,7 +79,8 @@ public class VectorHashingDemo {
      * <p>
      * This method utilizes the Vector API to perform dot product calculations in a
      * vectorized manner, which can lead to significant performance improvements over
-     * scalar processing for large datasets.
+     * scalar processing for large datasets. Each row goes through {@link Reductions#dot},
+     * which keeps several independent accumulators and allocates nothing per row.
      *
      * @param inputs  a 2D array of input vectors, where each row represents a vector
      * @param weights a 1D array representing the weight vector
@@ -90,22 +88,8 @@ public class VectorHashingDemo {
      */
     static float vectorProcess(float[][] inputs, float[] weights) {
         float total = 0f;
-        int len = weights.length;
-        int upper = SPECIES.loopBound(len);
         for (int i = 0; i < inputs.length; i++) {
-            FloatVector acc = FloatVector.zero(SPECIES);
-            int j = 0;
-            for (; j < upper; j += SPECIES.length()) {
-                FloatVector vIn = FloatVector.fromArray(SPECIES, inputs[i], j);
-                FloatVector vW = FloatVector.fromArray(SPECIES, weights, j);
-                acc = acc.add(vIn.mul(vW));
-            }
-            float dot = 0f;
-            float[] tmp = new float[SPECIES.length()];
-            acc.intoArray(tmp, 0);
-            for (float v : tmp) dot += v;
-            for (; j < len; j++) dot += inputs[i][j] * weights[j];
-            total += dot;
+            total += Reductions.dot(inputs[i], 0, weights, 0, weights.length);
         }
         return total;
     }
@@ -1,13 +1,14 @@
 package com.javafest.aiatspeed.vector;
 
-import java.util.Random;
-
+import com.javafest.aiatspeed.kernel.ArrayExpr;
+import com.javafest.aiatspeed.kernel.KernelProfile;
+import com.javafest.aiatspeed.kernel.RandomData;
 import jdk.incubator.vector.FloatVector;
 import jdk.incubator.vector.VectorSpecies;
 
 public class VectorPerformanceDemo {
-    private static VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
-//private static VectorSpecies<Float> SPECIES = FloatVector.SPECIES_256;
+    // Preferred species unless calibrated or overridden, e.g. -Daiatspeed.float.bits=256
+    private static final VectorSpecies<Float> SPECIES = KernelProfile.FLOAT_SPECIES;
     private static final int SIZE = 50_000_004;//50M
     public static final int  LOOP_BOUND = SPECIES.loopBound(SIZE);
     private static final float[] a = new float[SIZE];
@@ -15,11 +16,8 @@ public class VectorPerformanceDemo {
     private static final float[] c = new float[SIZE];
 
     static {
-        Random r = new Random(42);
-        for (int i = 0; i < SIZE; i++) {
-            a[i] = r.nextFloat();
-            b[i] = r.nextFloat();
-        }
+        RandomData.fillUniform(a, 42);
+        RandomData.fillUniform(b, 43);
     }
 
     public static void main(String[] args) {
@@ -27,11 +25,12 @@ public class VectorPerformanceDemo {
     }
 
     public static void run() {
-        System.out.println("Preferred = "+FloatVector.SPECIES_PREFERRED.vectorBitSize()+" bits, Loop bound = "+LOOP_BOUND);
+        System.out.println("Preferred = "+FloatVector.SPECIES_PREFERRED.vectorBitSize()+" bits, using "+SPECIES.vectorBitSize()+" bits, Loop bound = "+LOOP_BOUND);
         // Warm-up runs to trigger JIT compilation
         for (int i = 0; i < 3; i++) {
             scalarOperation();
             vectorOperation();
+            expressionOperation();
         }
 
         // Measure scalar version
@@ -40,9 +39,12 @@ public class VectorPerformanceDemo {
         long mid = System.nanoTime();
         vectorOperation();
         long end = System.nanoTime();
+        expressionOperation();
+        long expr = System.nanoTime();
 
         System.out.printf("Normal loop: %.2f ms%n", (mid - start) / 1_000_000.0);
         System.out.printf("Vector API loop: %.2f ms%n", (end - mid) / 1_000_000.0);
+        System.out.printf("Fused ArrayExpr: %.2f ms%n", (expr - end) / 1_000_000.0);
     }
 
 
@@ -69,7 +71,14 @@ public class VectorPerformanceDemo {
         for (; i < SIZE; i++) {
             float x = a[i];
             float y = b[i];
-            c[i] = (float)(x * y + Math.sqrt(x) * Math.sqrt(y));
+            c[i] = (float)Math.sqrt(Math.sqrt(x) * Math.sqrt(y) + (x * y));
         }
     }
+
+    // Same formula built as a lazy expression: one fused pass, masked tail, no temporaries
+    static void expressionOperation() {
+        ArrayExpr x = ArrayExpr.of(a);
+        ArrayExpr y = ArrayExpr.of(b);
+        x.sqrt().mul(y.sqrt()).add(x.mul(y)).sqrt().evalInto(c);
+    }
 }
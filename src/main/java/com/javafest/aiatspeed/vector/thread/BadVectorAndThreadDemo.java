@@ -1,5 +1,6 @@
 package com.javafest.aiatspeed.vector.thread;
 
+import com.javafest.aiatspeed.kernel.ParallelFor;
 import jdk.incubator.vector.FloatVector;
 import jdk.incubator.vector.VectorSpecies;
 
@@ -33,6 +34,7 @@ public class BadVectorAndThreadDemo {
         benchmark("Scalar (Single Core, No SIMD)", () -> addScalar(a, b, result));
         benchmark("Vectorized (Single Core, SIMD)", () -> addVector(a, b, result));
         benchmark("Vectorized + Multithreaded (SIMD + Threads)", () -> addVectorParallel(a, b, result));
+        benchmark("Vectorized + ParallelFor (aligned, stealing)", () -> addVectorParallelFor(a, b, result));
     }
 
     /** Scalar addition (no SIMD) */
@@ -84,6 +86,24 @@ public class BadVectorAndThreadDemo {
         });
     }
 
+    /** Same kernel on lane-aligned, work-stealing splits; the vector bound is relative to each chunk */
+    private static void addVectorParallelFor(float[] a, float[] b, float[] result) {
+        ParallelFor.forRange(a.length, (from, to) -> {
+            int i = from;
+            int upperBound = from + SPECIES.loopBound(to - from);
+
+            for (; i < upperBound; i += SPECIES.length()) {
+                FloatVector va = FloatVector.fromArray(SPECIES, a, i);
+                FloatVector vb = FloatVector.fromArray(SPECIES, b, i);
+                va.add(vb).intoArray(result, i);
+            }
+
+            for (; i < to; i++) {
+                result[i] = a[i] + b[i];
+            }
+        });
+    }
+
     /** Benchmarking helper */
     private static void benchmark(String label, Runnable task) {
         System.gc();
@@ -1,18 +1,17 @@
 package com.javafest.aiatspeed.vector.thread;
 
+import com.javafest.aiatspeed.kernel.KernelProfile;
+import com.javafest.aiatspeed.kernel.ParallelFor;
 import jdk.incubator.vector.FloatVector;
 import jdk.incubator.vector.VectorOperators;
 import jdk.incubator.vector.VectorSpecies;
 
-import java.util.stream.IntStream;
-
 public class GoodVectorAndThreadDemo {
 
     private static final int SIZE = 100_000_000; // 100M elements
+    // Preferred species unless calibrated or overridden, e.g. -Daiatspeed.float.bits=128
     private static final VectorSpecies<Float> SPECIES =
-            FloatVector.SPECIES_PREFERRED;
-//    private static final VectorSpecies<Float> SPECIES =
-//            FloatVector.SPECIES_128;
+            KernelProfile.FLOAT_SPECIES;
     private static final int ITERATIONS = 5; // warm-up + measurement rounds
 
     public static void main(String[] args) {
@@ -97,19 +96,13 @@ public class GoodVectorAndThreadDemo {
     }
 
     /**
-     * SIMD + multithreading
+     * SIMD + multithreading: lane-aligned, work-stealing splits on the {@link ParallelFor} pool
      */
     private static void addVectorParallel(float[] a, float[] b,
                                           float[] result) {
-        int cores = Runtime.getRuntime().availableProcessors();
-        int chunkSize = (int) Math.ceil((double) a.length / cores);
-
-        IntStream.range(0, cores).parallel().forEach(core -> {
-            int start = core * chunkSize;
-            int end = Math.min(a.length, start + chunkSize);
-
-            int i = start;
-            int upperBound = SPECIES.loopBound(end);
+        ParallelFor.forRange(a.length, (from, to) -> {
+            int i = from;
+            int upperBound = from + SPECIES.loopBound(to - from);
 
             for (; i < upperBound; i += SPECIES.length()) {
                 FloatVector va = FloatVector.fromArray(SPECIES, a, i);
@@ -120,7 +113,7 @@ public class GoodVectorAndThreadDemo {
                 res.intoArray(result, i);
             }
 
-            for (; i < end; i++) {
+            for (; i < to; i++) {
                 result[i] = (float) Math.sqrt(Math.sin(a[i] * b[i]));
             }
         });